@@ -0,0 +1,285 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Static helpers for working on the xml text of a document body without
+ * parsing it into a DOM.<br>
+ *
+ */
+final class BodyXml {
+  /** matches attributes in the relationships namespace, which hold relation ids */
+  final static Pattern REL_ID_ATTRIBUTE = Pattern.compile("(\\sr:[A-Za-z]+=\")([^\"]*)(\")");
+
+  private BodyXml() {
+  }
+
+  /**
+   * Returns the position right after the 'w:body' start tag.<br>
+   * <br>
+   *
+   * @param xml the xml text of the main document part
+   * @return the position or -1 if there is no body
+   */
+  static int bodyContentStart(String xml) {
+    int ind1 = xml.indexOf("<w:body>");
+    if (ind1 > -1) {
+      return ind1 + 8;
+    }
+    ind1 = xml.indexOf("<w:body ");
+    return ind1 < 0 ? -1 : tagEnd(xml, ind1);
+  }
+
+  /**
+   * Returns the position of the 'w:body' end tag.<br>
+   * <br>
+   *
+   * @param xml the xml text of the main document part
+   * @return the position or -1 if there is no body
+   */
+  static int bodyContentEnd(String xml) {
+    return xml.lastIndexOf("</w:body>");
+  }
+
+  /**
+   * Collects the ranges of all elements between from and to which are on the
+   * top level of this range, e.g. the paragraphs, tables and sectPr of a body.
+   * Comments and processing instructions are skipped.<br>
+   * <br>
+   *
+   * @param xml  the xml text
+   * @param from start of the range (inclusive)
+   * @param to   end of the range (exclusive)
+   * @return start (inclusive) and end (exclusive) of every element
+   */
+  static List<int[]> topLevelElements(String xml, int from, int to) {
+    List<int[]> result = new ArrayList<int[]>();
+    int depth = 0;
+    int elementStart = -1;
+    int pos = xml.indexOf('<', from);
+    while (pos > -1 && pos < to) {
+      int end;
+      if (xml.startsWith("<!--", pos)) {
+        end = xml.indexOf("-->", pos) + 3;
+      } else if (xml.startsWith("<?", pos)) {
+        end = xml.indexOf("?>", pos) + 2;
+      } else if (xml.startsWith("</", pos)) {
+        end = tagEnd(xml, pos);
+        depth--;
+        if (depth == 0) {
+          result.add(new int[] { elementStart, end });
+        }
+      } else {
+        end = tagEnd(xml, pos);
+        if (xml.charAt(end - 2) == '/') {
+          if (depth == 0) {
+            result.add(new int[] { pos, end });
+          }
+        } else {
+          if (depth == 0) {
+            elementStart = pos;
+          }
+          depth++;
+        }
+      }
+      if (end <= pos) {
+        break;
+      }
+      pos = xml.indexOf('<', end);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the start tag and properties to continue the given paragraph after
+   * it was closed for inserting block content. The properties include a
+   * 'w:sectPr', as the section break moves to the continued paragraph; callers
+   * remove it from the closed part (see {@link #paragraphSectPr}).<br>
+   * <br>
+   *
+   * @param xml   the xml text
+   * @param pOpen the start of the paragraph's start tag
+   * @return the xml opening the continued paragraph
+   */
+  static String paragraphReopen(String xml, int pOpen) {
+    int pOpenEnd = tagEnd(xml, pOpen);
+    if (xml.startsWith("<w:pPr>", pOpenEnd) || xml.startsWith("<w:pPr ", pOpenEnd)) {
+      return xml.substring(pOpen, xml.indexOf("</w:pPr>", pOpenEnd) + 8);
+    }
+    return xml.substring(pOpen, pOpenEnd);
+  }
+
+  /**
+   * Finds the section break in the properties of the given paragraph.<br>
+   * <br>
+   *
+   * @param xml   the xml text
+   * @param pOpen the start of the paragraph's start tag
+   * @return start and end of the 'w:sectPr' element or null if the paragraph
+   *         doesn't end a section
+   */
+  static int[] paragraphSectPr(String xml, int pOpen) {
+    int pOpenEnd = tagEnd(xml, pOpen);
+    if (!xml.startsWith("<w:pPr>", pOpenEnd) && !xml.startsWith("<w:pPr ", pOpenEnd)) {
+      return null;
+    }
+    int pPrEnd = xml.indexOf("</w:pPr>", pOpenEnd);
+    int ind1 = xml.indexOf("<w:sectPr", pOpenEnd);
+    if (ind1 < 0 || ind1 > pPrEnd) {
+      return null;
+    }
+    int sectPrTagEnd = tagEnd(xml, ind1);
+    if (xml.charAt(sectPrTagEnd - 2) == '/') {
+      return new int[] { ind1, sectPrTagEnd };
+    }
+    return new int[] { ind1, xml.indexOf("</w:sectPr>", ind1) + 11 };
+  }
+
+  /**
+   * Tracks the open elements while walking forward through an xml text, so
+   * the parent of many positions can be found in a single pass.<br>
+   *
+   */
+  static final class ElementPath {
+    /** elements that may directly contain paragraphs and tables */
+    private final static Set<String> BLOCK_CONTAINERS = new HashSet<String>(Arrays.asList("w:body", "w:tc"));
+
+    private final String xml;
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Integer> starts = new ArrayList<Integer>();
+    private int pos;
+
+    /**
+     * @param xml  the xml text
+     * @param from the position to start at, on the top level of the range
+     *             walked through
+     */
+    ElementPath(String xml, int from) {
+      this.xml = xml;
+      this.pos = from;
+    }
+
+    /**
+     * Processes all tags starting before the given position. Positions must
+     * be given in ascending order.<br>
+     * <br>
+     *
+     * @param to the position
+     */
+    void advanceTo(int to) {
+      int tagStart = xml.indexOf('<', pos);
+      while (tagStart > -1 && tagStart < to) {
+        int end;
+        if (xml.startsWith("<!--", tagStart)) {
+          end = xml.indexOf("-->", tagStart) + 3;
+        } else if (xml.startsWith("<?", tagStart)) {
+          end = xml.indexOf("?>", tagStart) + 2;
+        } else {
+          end = tagEnd(xml, tagStart);
+          if (xml.startsWith("</", tagStart)) {
+            if (!names.isEmpty()) {
+              names.remove(names.size() - 1);
+              starts.remove(starts.size() - 1);
+            }
+          } else if (xml.charAt(end - 2) != '/') {
+            int nameEnd = tagStart + 1;
+            while (nameEnd < end && " \t\r\n/>".indexOf(xml.charAt(nameEnd)) < 0) {
+              nameEnd++;
+            }
+            names.add(xml.substring(tagStart + 1, nameEnd));
+            starts.add(tagStart);
+          }
+        }
+        if (end <= tagStart) {
+          tagStart = -1;
+          break;
+        }
+        tagStart = xml.indexOf('<', end);
+      }
+      pos = tagStart < 0 ? xml.length() : tagStart;
+    }
+
+    /**
+     * @return the name of the innermost open element, null on the top level
+     */
+    String parent() {
+      return names.isEmpty() ? null : names.get(names.size() - 1);
+    }
+
+    /**
+     * @return the start of the innermost open element's start tag, -1 on the
+     *         top level
+     */
+    int parentStart() {
+      return starts.isEmpty() ? -1 : starts.get(starts.size() - 1);
+    }
+
+    /**
+     * Checks whether block content (paragraphs, tables, altChunks) can be
+     * inserted at the current position. This is the case directly inside a
+     * paragraph, which is split then, and on the level of the body, a table
+     * cell or a block level content control.<br>
+     * <br>
+     *
+     * @return true if block content can be inserted
+     */
+    boolean acceptsBlockContent() {
+      int i = names.size() - 1;
+      if (i > -1 && names.get(i).equals("w:p")) {
+        return true;
+      }
+      if (names.contains("w:p")) {
+        return false;
+      }
+      // content controls take the level of their parent
+      while (i > 0 && names.get(i).equals("w:sdtContent") && names.get(i - 1).equals("w:sdt")) {
+        i -= 2;
+      }
+      return i < 0 || BLOCK_CONTAINERS.contains(names.get(i));
+    }
+  }
+
+  /**
+   * Returns the position right after the tag starting at the given position.
+   * Quoted attribute values are skipped.<br>
+   * <br>
+   */
+  static int tagEnd(String xml, int tagStart) {
+    char quote = 0;
+    for (int i = tagStart + 1; i < xml.length(); i++) {
+      char c = xml.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == '>') {
+        return i + 1;
+      }
+    }
+    return xml.length();
+  }
+
+  /**
+   * Collects the relation ids referenced by the given xml.<br>
+   * <br>
+   *
+   * @param xml the xml text
+   * @return the referenced ids
+   */
+  static Set<String> referencedRelationIds(CharSequence xml) {
+    Set<String> result = new HashSet<String>();
+    Matcher m = REL_ID_ATTRIBUTE.matcher(xml);
+    while (m.find()) {
+      result.add(m.group(2));
+    }
+    return result;
+  }
+}
@@ -0,0 +1,26 @@
+package app;
+
+/**
+ * Token to cancel running merges from another thread. A token can be passed to
+ * several merges, cancelling it stops all of them at their next
+ * checkpoint.<br>
+ *
+ */
+public class CancellationToken {
+  private volatile boolean cancelled = false;
+
+  /**
+   * Requests the cancellation of all merges using this token.<br>
+   * <br>
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @return true, if cancellation was requested
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+}
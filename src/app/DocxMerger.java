@@ -0,0 +1,874 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+
+import org.apache.poi.POIXMLDocumentPart;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipCollection;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.util.PackageHelper;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTBody;
+import org.openxmlformats.schemas.wordprocessingml.x2006.main.CTSectPr;
+import org.w3c.dom.Node;
+
+/**
+ * Merges MS Word documents. An instance is created once from an immutable
+ * {@link MergeConfiguration} and can be shared between threads; copy buffers
+ * are pooled per thread and the xml options are shared read-only. The
+ * documents passed to a single merge must not be used by another thread at
+ * the same time.<br>
+ *
+ */
+public class DocxMerger {
+  /** content type of the main part of a word document */
+  final static String CT_MAIN_DOCUMENT = "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml";
+
+  /** content type of the main part of a macro enabled word document */
+  final static String CT_MAIN_DOCUMENT_MACRO = "application/vnd.ms-word.document.macroEnabled.main+xml";
+
+  /** options for saving the inner xml of a body, never modified after creation */
+  private final static XmlOptions SAVE_INNER = new XmlOptions().setSaveInner();
+
+  private final MergeConfiguration config;
+
+  /** temporary files of the packages created by this merger until released */
+  private final Map<OPCPackage, File> tempFiles = Collections
+      .synchronizedMap(new WeakHashMap<OPCPackage, File>());
+
+  private final ThreadLocal<byte[]> copyBuffers = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[config.getCopyBufferSize()];
+    }
+  };
+
+  /**
+   * Creates a merger with the default configuration.<br>
+   * <br>
+   */
+  public DocxMerger() {
+    this(MergeConfiguration.builder().build());
+  }
+
+  /**
+   * Creates a merger.<br>
+   * <br>
+   *
+   * @param config the configuration of this merger
+   */
+  public DocxMerger(MergeConfiguration config) {
+    this.config = config;
+  }
+
+  /**
+   * @return the configuration of this merger
+   */
+  public MergeConfiguration getConfiguration() {
+    return config;
+  }
+
+  /**
+   * Appends the body of docToAdd to the body of sourceDoc and returns the result
+   * as a new document. Parts, pictures and relations of docToAdd are transferred
+   * to the new document.<br>
+   * <br>
+   *
+   * @param sourceDoc the document to append to
+   * @param docToAdd  the document to be appended
+   * @return the merged document
+   * @throws MergeException if the merge fails
+   */
+  public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd) throws MergeException {
+    return merge(sourceDoc, docToAdd, null);
+  }
+
+  /**
+   * Appends the body of docToAdd to the body of sourceDoc and returns the result
+   * as a new document. Parts, pictures and relations of docToAdd are transferred
+   * to the new document.<br>
+   * <br>
+   *
+   * @param sourceDoc the document to append to
+   * @param docToAdd  the document to be appended
+   * @param report    receives statistics about the merge, may be null
+   * @return the merged document
+   * @throws MergeException if the merge fails
+   */
+  public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd, MergeReport report)
+      throws MergeException {
+    return merge(sourceDoc, docToAdd, report, MergeControl.NONE);
+  }
+
+  /**
+   * Appends the body of docToAdd to the body of sourceDoc and returns the result
+   * as a new document. Parts, pictures and relations of docToAdd are transferred
+   * to the new document.<br>
+   * The given control is checked at every phase boundary and inside the long
+   * running loops. If the merge is stopped or fails, its temporary package is
+   * released.<br>
+   * <br>
+   *
+   * @param sourceDoc the document to append to
+   * @param docToAdd  the document to be appended
+   * @param report    receives statistics about the merge, may be null
+   * @param control   deadline and cancellation token of the merge
+   * @return the merged document
+   * @throws MergeCancelledException if the deadline passed or the merge was
+   *                                 cancelled
+   * @throws MergeException          if the merge fails
+   */
+  public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd, MergeReport report,
+      MergeControl control) throws MergeException {
+    MergePhase phase = MergePhase.STRIP_BOOKMARKS;
+    File tempFile = null;
+    OPCPackage mergePkg = null;
+    boolean success = false;
+    try {
+      control.checkpoint(phase);
+      if (config.isStripGoBackBookmarks()) {
+        stripUnneededBookmarks(docToAdd, control);
+      }
+
+      phase = MergePhase.CLONE_PACKAGE;
+      control.checkpoint(phase);
+      tempFile = PackageHelper.createTempFile();
+      mergePkg = PackageHelper.clone(sourceDoc.getPackage(), tempFile);
+
+      XWPFDocument mergeDoc = new XWPFDocument(mergePkg);
+      mergeDoc.getDocument().unsetBody();
+
+      CTBody mergeBody = mergeDoc.getDocument().addNewBody();
+      mergeBody.set(sourceDoc.getDocument().getBody());
+
+      PackagePart mergeMainPart = mergePkg.getPartsByContentType(CT_MAIN_DOCUMENT).get(0);
+
+      String strAddBody = transferContent(docToAdd, mergeDoc, mergePkg, mergeMainPart, report, control);
+
+      phase = MergePhase.BUILD_BODY;
+      control.checkpoint(phase);
+      addNewBodyAsBody(mergeBody, strAddBody, control);
+
+      tempFiles.put(mergePkg, tempFile);
+      success = true;
+      return mergeDoc;
+    } catch (MergeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MergeException(phase, "merge failed", e);
+    } finally {
+      if (!success) {
+        release(mergePkg, tempFile);
+      }
+    }
+  }
+
+  /**
+   * Inserts sub-documents at bookmarks of the master document and returns the
+   * result as a new document. The target bookmarks are located in a single
+   * pass over the body and the body is rebuilt once, however many
+   * sub-documents are inserted. Parts, pictures and relations of every
+   * sub-document are transferred to the new document.<br>
+   * <br>
+   *
+   * @param master     the document to insert into
+   * @param insertions map of bookmark names to the documents to be inserted
+   *                   there
+   * @return the merged document
+   * @throws MergeException if the merge fails or a bookmark doesn't exist
+   */
+  public XWPFDocument insert(XWPFDocument master, Map<String, XWPFDocument> insertions) throws MergeException {
+    return insert(master, insertions, null);
+  }
+
+  /**
+   * Inserts sub-documents at bookmarks of the master document and returns the
+   * result as a new document.<br>
+   * <br>
+   *
+   * @param master     the document to insert into
+   * @param insertions map of bookmark names to the documents to be inserted
+   *                   there
+   * @param report     receives statistics about the merge, may be null
+   * @return the merged document
+   * @throws MergeException if the merge fails or a bookmark doesn't exist
+   * @see #insert(XWPFDocument, Map, MergeReport, MergeControl)
+   */
+  public XWPFDocument insert(XWPFDocument master, Map<String, XWPFDocument> insertions, MergeReport report)
+      throws MergeException {
+    return insert(master, insertions, report, MergeControl.NONE);
+  }
+
+  /**
+   * Inserts sub-documents at bookmarks of the master document and returns the
+   * result as a new document. The target bookmarks are located in a single
+   * pass over the body and the body is rebuilt once, however many
+   * sub-documents are inserted. Parts, pictures and relations of every
+   * sub-document are transferred to the new document.<br>
+   * The content of a sub-document is inserted right after the start of its
+   * bookmark. If the bookmark is directly inside a paragraph, the paragraph is
+   * split there and continued with the same properties after the inserted
+   * content. Otherwise the bookmark must be on the level of the body, a table
+   * cell or a block level content control. The section properties of the
+   * sub-documents are dropped.<br>
+   * <br>
+   *
+   * @param master     the document to insert into
+   * @param insertions map of bookmark names to the documents to be inserted
+   *                   there
+   * @param report     receives statistics about the merge, may be null
+   * @param control    deadline and cancellation token of the merge
+   * @return the merged document
+   * @throws MergeCancelledException if the deadline passed or the merge was
+   *                                 cancelled
+   * @throws MergeException          if the merge fails, a bookmark doesn't
+   *                                 exist or is at a position where no block
+   *                                 content can be inserted
+   */
+  public XWPFDocument insert(XWPFDocument master, Map<String, XWPFDocument> insertions, MergeReport report,
+      MergeControl control) throws MergeException {
+    MergePhase phase = MergePhase.STRIP_BOOKMARKS;
+    File tempFile = null;
+    OPCPackage mergePkg = null;
+    boolean success = false;
+    try {
+      control.checkpoint(phase);
+      if (config.isStripGoBackBookmarks()) {
+        for (XWPFDocument docToAdd : insertions.values()) {
+          stripUnneededBookmarks(docToAdd, control);
+        }
+      }
+
+      phase = MergePhase.CLONE_PACKAGE;
+      control.checkpoint(phase);
+      tempFile = PackageHelper.createTempFile();
+      mergePkg = PackageHelper.clone(master.getPackage(), tempFile);
+
+      XWPFDocument mergeDoc = new XWPFDocument(mergePkg);
+      mergeDoc.getDocument().unsetBody();
+
+      CTBody mergeBody = mergeDoc.getDocument().addNewBody();
+      mergeBody.set(master.getDocument().getBody());
+
+      PackagePart mergeMainPart = mergePkg.getPartsByContentType(CT_MAIN_DOCUMENT).get(0);
+
+      HashMap<String, String> addBodies = new HashMap<String, String>();
+      for (Map.Entry<String, XWPFDocument> insertion : insertions.entrySet()) {
+        addBodies.put(insertion.getKey(),
+            transferContent(insertion.getValue(), mergeDoc, mergePkg, mergeMainPart, report, control));
+      }
+
+      phase = MergePhase.BUILD_BODY;
+      control.checkpoint(phase);
+      insertBodiesAtBookmarks(mergeBody, addBodies, control);
+
+      tempFiles.put(mergePkg, tempFile);
+      success = true;
+      return mergeDoc;
+    } catch (MergeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MergeException(phase, "merge failed", e);
+    } finally {
+      if (!success) {
+        release(mergePkg, tempFile);
+      }
+    }
+  }
+
+  /**
+   * Transfers the altChunks, pictures, embeddings and external relations of
+   * docToAdd into the merge package.<br>
+   * <br>
+   *
+   * @return the inner xml of the body of docToAdd with the relation ids of the
+   *         merge package
+   */
+  private String transferContent(XWPFDocument docToAdd, XWPFDocument mergeDoc, OPCPackage mergePkg,
+      PackagePart mergeMainPart, MergeReport report, MergeControl control) throws MergeException {
+    MergePhase phase = MergePhase.TRANSFER_ALTCHUNKS;
+    try {
+      String strAddBody = docToAdd.getDocument().getBody().xmlText(SAVE_INNER);
+      HashMap<String, String> oldAndNewIds = new HashMap<String, String>();
+
+      control.checkpoint(phase);
+      transferAltChunks(docToAdd, strAddBody, mergePkg, mergeMainPart, oldAndNewIds, control);
+
+      phase = MergePhase.TRANSFER_PICTURES;
+      control.checkpoint(phase);
+      transferPictures(docToAdd, strAddBody, mergeDoc, oldAndNewIds, report, control);
+
+      phase = MergePhase.TRANSFER_EMBEDDINGS;
+      control.checkpoint(phase);
+      transferEmbeddings(docToAdd, mergePkg, mergeMainPart, oldAndNewIds, control);
+
+      phase = MergePhase.TRANSFER_EXTERNAL_RELATIONS;
+      control.checkpoint(phase);
+      transferExternalRelations(docToAdd, CT_MAIN_DOCUMENT, mergeMainPart, oldAndNewIds, control);
+      transferExternalRelations(docToAdd, CT_MAIN_DOCUMENT_MACRO, mergeMainPart, oldAndNewIds, control);
+
+      return remapRelationIds(strAddBody, oldAndNewIds);
+    } catch (MergeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MergeException(phase, "merge failed", e);
+    }
+  }
+
+  /**
+   * Releases a document when it is no longer needed, e.g. after it was written
+   * or merged into another document. The package is reverted and, if it was
+   * created by this merger, its temporary file is deleted. The document must
+   * not be used afterwards.<br>
+   * Documents that are not released keep their temporary file until the JVM
+   * exits.<br>
+   * <br>
+   *
+   * @param doc the document to release, may be null
+   */
+  public void release(XWPFDocument doc) {
+    if (doc != null) {
+      release(doc.getPackage(), tempFiles.remove(doc.getPackage()));
+    }
+  }
+
+  /**
+   * Releases the temporary package of a merge that didn't succeed.<br>
+   * <br>
+   */
+  private static void release(OPCPackage mergePkg, File tempFile) {
+    if (mergePkg != null) {
+      mergePkg.revert();
+    }
+    if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+      tempFile.deleteOnExit();
+    }
+  }
+
+  /**
+   * Copies the parts referenced by the altChunks of the given body into the
+   * merge package.<br>
+   * <br>
+   */
+  private void transferAltChunks(XWPFDocument docToAdd, String strAddBody, OPCPackage mergePkg,
+      PackagePart mergeMainPart, Map<String, String> oldAndNewIds, MergeControl control) throws Exception {
+    int ind1 = strAddBody.indexOf("<w:altChunk");
+    if (ind1 < 0) {
+      return;
+    }
+
+    PackageRelationshipCollection coll = docToAdd.getPackage().getPartsByContentType(CT_MAIN_DOCUMENT).get(0)
+        .getRelationships();
+    while (ind1 > -1) {
+      control.checkpoint(MergePhase.TRANSFER_ALTCHUNKS);
+      int tagEnd = strAddBody.indexOf(">", ind1);
+      ind1 = strAddBody.indexOf("r:id=\"", ind1);
+      if (ind1 < 0 || ind1 > tagEnd) {
+        // altChunk without relation, nothing to transfer
+        ind1 = tagEnd < 0 ? -1 : strAddBody.indexOf("<w:altChunk", tagEnd);
+        continue;
+      }
+      ind1 += 6;
+      int ind2 = strAddBody.indexOf("\"", ind1);
+      String id = strAddBody.substring(ind1, ind2);
+      PackageRelationship foundRel = null;
+      Iterator<PackageRelationship> iter = coll.iterator();
+      while (iter.hasNext() && (foundRel == null)) {
+        PackageRelationship rel = iter.next();
+        if (rel.getId().equals(id)) {
+          foundRel = rel;
+        }
+      }
+
+      if (foundRel != null) {
+        transferPart(docToAdd, foundRel, mergePkg, mergeMainPart, oldAndNewIds, MergePhase.TRANSFER_ALTCHUNKS,
+            control);
+      }
+
+      ind1 = strAddBody.indexOf("<w:altChunk", ind2);
+    }
+  }
+
+  /**
+   * Adds the pictures of docToAdd to the merge document, passing them through
+   * the image optimization stage if one is configured.<br>
+   * <br>
+   */
+  private void transferPictures(XWPFDocument docToAdd, String strAddBody, XWPFDocument mergeDoc,
+      Map<String, String> oldAndNewIds, MergeReport report, MergeControl control) throws Exception {
+    List<XWPFPictureData> pics = docToAdd.getAllPackagePictures();
+    List<ImageOptimizer.OptimizedPicture> optimizedPics = null;
+    if (config.getImageOptimizer() != null) {
+      optimizedPics = config.getImageOptimizer().optimize(pics, strAddBody, report, control);
+    }
+    for (int i = 0; i < pics.size(); i++) {
+      control.checkpoint(MergePhase.TRANSFER_PICTURES);
+      XWPFPictureData pic = pics.get(i);
+      String oldId = pic.getPackageRelationship().getId();
+      byte[] data;
+      int type;
+      if (optimizedPics != null) {
+        data = optimizedPics.get(i).getData();
+        type = optimizedPics.get(i).getType();
+      } else {
+        data = pic.getData();
+        type = pic.getPictureType();
+      }
+
+      int newIndex = mergeDoc.addPicture(data, type);
+      String newId = mergeDoc.getAllPackagePictures().get(newIndex).getPackageRelationship().getId();
+      oldAndNewIds.put(oldId, newId);
+    }
+  }
+
+  /**
+   * Copies the embedded objects of docToAdd into the merge package.<br>
+   * <br>
+   */
+  private void transferEmbeddings(XWPFDocument docToAdd, OPCPackage mergePkg, PackagePart mergeMainPart,
+      Map<String, String> oldAndNewIds, MergeControl control) throws Exception {
+    List<PackagePart> embeds = docToAdd.getAllEmbedds();
+    for (PackagePart embed : embeds) {
+      control.checkpoint(MergePhase.TRANSFER_EMBEDDINGS);
+      PackageRelationship foundRel = null;
+
+      List<POIXMLDocumentPart> rels = docToAdd.getRelations();
+      for (POIXMLDocumentPart rel : rels) {
+        if (embed.getPartName().getName().equals(rel.getPackagePart().getPartName().getName())) {
+          foundRel = rel.getPackageRelationship();
+          break;
+        }
+      }
+
+      if (foundRel != null) {
+        transferPart(docToAdd, foundRel, mergePkg, mergeMainPart, oldAndNewIds, MergePhase.TRANSFER_EMBEDDINGS,
+            control);
+      }
+    }
+  }
+
+  /**
+   * Copies the external relations of the main part of the given content type.
+   * <br>
+   * <br>
+   */
+  private void transferExternalRelations(XWPFDocument docToAdd, String contentType, PackagePart mergeMainPart,
+      Map<String, String> oldAndNewIds, MergeControl control) throws Exception {
+    ArrayList<PackagePart> parts = docToAdd.getPackage().getPartsByContentType(contentType);
+    if (parts.size() > 0) {
+      PackageRelationshipCollection coll = parts.get(0).getRelationships();
+      for (int i = 0; i < coll.size(); i++) {
+        control.checkpoint(MergePhase.TRANSFER_EXTERNAL_RELATIONS);
+        PackageRelationship rel = coll.getRelationship(i);
+        if (rel.getTargetMode() == TargetMode.EXTERNAL) {
+          PackageRelationship newRel = mergeMainPart.addExternalRelationship(rel.getTargetURI().toString(),
+              rel.getRelationshipType());
+          oldAndNewIds.put(rel.getId(), newRel.getId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies the target part of the given relation into the merge package and
+   * creates a corresponding relation from the main part of the merge
+   * package.<br>
+   * <br>
+   */
+  private void transferPart(XWPFDocument docToAdd, PackageRelationship foundRel, OPCPackage mergePkg,
+      PackagePart mergeMainPart, Map<String, String> oldAndNewIds, MergePhase phase, MergeControl control)
+      throws Exception {
+    String targetURIStr = foundRel.getTargetURI().toString();
+    String targetBase = targetURIStr.substring(0, targetURIStr.lastIndexOf('.')) + System.currentTimeMillis();
+    String targetExt = targetURIStr.substring(targetURIStr.lastIndexOf('.'));
+    URI targetURI = new URI(targetBase + targetExt);
+    // several documents merged within the same millisecond may bring parts of
+    // the same name
+    for (int i = 2; mergePkg.containPart(PackagingURIHelper.createPartName(targetURI)); i++) {
+      targetURI = new URI(targetBase + "_" + i + targetExt);
+    }
+
+    String newId = mergeMainPart.addRelationship(targetURI, foundRel.getTargetMode(), foundRel.getRelationshipType())
+        .getId();
+
+    oldAndNewIds.put(foundRel.getId(), newId);
+
+    PackagePart pt = docToAdd.getPackage().getPart(PackagingURIHelper.createPartName(foundRel.getTargetURI()));
+
+    PackagePart tpt = mergePkg.createPart(PackagingURIHelper.createPartName(targetURI), pt.getContentType());
+
+    OutputStream out = tpt.getOutputStream();
+    InputStream in = pt.getInputStream();
+    try {
+      copy(in, out, phase, control);
+      out.flush();
+    } finally {
+      out.close();
+      in.close();
+    }
+
+    tpt.flush();
+    tpt.close();
+  }
+
+  /**
+   * Copies the given input to the given output using the copy buffer of the
+   * current thread.<br>
+   * <br>
+   */
+  private void copy(InputStream in, OutputStream out, MergePhase phase, MergeControl control)
+      throws IOException, MergeCancelledException {
+    byte[] b = copyBuffers.get();
+    int len = 0;
+    while ((len = in.read(b)) > -1) {
+      control.checkpoint(phase);
+      out.write(b, 0, len);
+    }
+  }
+
+  /**
+   * Replaces the relation ids in the given body xml in a single pass. Only
+   * attributes in the relationships namespace are touched, so ids that are a
+   * prefix of other ids (e.g. 'rId1' and 'rId10') are kept apart.<br>
+   * <br>
+   *
+   * @param strBody      the xml of the body
+   * @param oldAndNewIds map of old to new relation ids
+   * @return the xml with replaced ids
+   */
+  static String remapRelationIds(String strBody, Map<String, String> oldAndNewIds) {
+    if (oldAndNewIds.isEmpty()) {
+      return strBody;
+    }
+
+    Matcher m = BodyXml.REL_ID_ATTRIBUTE.matcher(strBody);
+    StringBuffer sb = new StringBuffer(strBody.length());
+    while (m.find()) {
+      String newId = oldAndNewIds.get(m.group(2));
+      if (newId != null) {
+        m.appendReplacement(sb, Matcher.quoteReplacement(m.group(1) + newId + m.group(3)));
+      }
+    }
+    m.appendTail(sb);
+    return sb.toString();
+  }
+
+  /**
+   * Removes the '_GoBack' bookmarks from the given XWPFDocument object. These
+   * bookmarks are completly invisible to the user and only used by Word for
+   * change tracking, so they can (must) be removed without any difficulties.<br>
+   * <br>
+   *
+   * @param wordDoc the XWPFDocument to remove the bookmarks from
+   * @param control deadline and cancellation token of the merge
+   * @throws MergeCancelledException if the merge is stopped
+   */
+  private static void stripUnneededBookmarks(XWPFDocument wordDoc, MergeControl control)
+      throws MergeCancelledException {
+    List<Node> startNodes = DOMHelpers.collectAllNodes(wordDoc.getDocument().getDomNode(), DOMHelpers.NODE_BM_START);
+    List<Node> endNodes = DOMHelpers.collectAllNodes(wordDoc.getDocument().getDomNode(), DOMHelpers.NODE_BM_END);
+
+    for (Node start : startNodes) {
+      control.checkpoint(MergePhase.STRIP_BOOKMARKS);
+      String bmName = DOMHelpers.getNameFromNode(start);
+      if (bmName.equalsIgnoreCase("_GoBack")) {
+        String startId = DOMHelpers.getIdFromNode(start);
+        for (Node end : endNodes) {
+          if (DOMHelpers.getIdFromNode(end).equals(startId)) {
+            end.getParentNode().removeChild(end);
+          }
+        }
+        start.getParentNode().removeChild(start);
+      }
+    }
+  }
+
+  /**
+   * Internal helper method for merging documents.<br>
+   * <br>
+   *
+   * @param mainBody    CTBody object where the other object is appended to
+   * @param strAddBody1 CTBody object which is appended to the other object
+   * @param control     deadline and cancellation token of the merge
+   * @throws Exception if anything goes wrong
+   */
+  private static void addNewBodyAsBody(CTBody mainBody, String strAddBody1, MergeControl control)
+      throws Exception {
+    String strMainBody = mainBody.xmlText();
+
+    HashMap<String, String> targetPrefixParts = new HashMap<String, String>();
+    collectNamespaces(strMainBody, targetPrefixParts);
+    collectNamespaces(strAddBody1, targetPrefixParts);
+
+    String mainPart = strMainBody.substring(strMainBody.indexOf(">") + 1, strMainBody.lastIndexOf("<"));
+
+    String addPart1 = strAddBody1;
+    if (addPart1.startsWith("<xml-fragment")) {
+      addPart1 = addPart1.substring(strAddBody1.indexOf(">") + 1, strAddBody1.lastIndexOf("<"));
+    }
+
+    // correct bookmark ids
+    int[] nextId = { nextBookmarkId(mainPart, control) };
+    addPart1 = renumberBookmarks(addPart1, nextId, control);
+
+    buildBody(mainBody, targetPrefixParts, mainPart + addPart1, control);
+  }
+
+  /**
+   * Internal helper method for inserting documents at bookmarks. All target
+   * bookmarks are located in one pass over the main body.<br>
+   * <br>
+   *
+   * @param mainBody  CTBody object where the other bodies are inserted
+   * @param addBodies inner xml of the bodies to insert by bookmark name
+   * @param control   deadline and cancellation token of the merge
+   * @throws Exception if anything goes wrong
+   */
+  private static void insertBodiesAtBookmarks(CTBody mainBody, Map<String, String> addBodies,
+      MergeControl control) throws Exception {
+    String strMainBody = mainBody.xmlText();
+
+    HashMap<String, String> targetPrefixParts = new HashMap<String, String>();
+    collectNamespaces(strMainBody, targetPrefixParts);
+
+    String mainPart = strMainBody.substring(strMainBody.indexOf(">") + 1, strMainBody.lastIndexOf("<"));
+    int[] nextId = { nextBookmarkId(mainPart, control) };
+
+    StringBuilder sb = new StringBuilder(mainPart.length());
+    HashSet<String> found = new HashSet<String>();
+    BodyXml.ElementPath path = new BodyXml.ElementPath(mainPart, 0);
+    int copied = 0;
+    int movedSectPr = -1;
+    int ind1 = mainPart.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      control.checkpoint(MergePhase.BUILD_BODY);
+      path.advanceTo(ind1);
+      int tagEnd = BodyXml.tagEnd(mainPart, ind1);
+      String name = DocxPackage.getAttribute(mainPart.substring(ind1, tagEnd), "w:name");
+      String strAddBody = addBodies.get(name);
+      if (strAddBody != null && found.add(name)) {
+        collectNamespaces(strAddBody, targetPrefixParts);
+        String addPart = strAddBody;
+        if (addPart.startsWith("<xml-fragment")) {
+          addPart = addPart.substring(addPart.indexOf(">") + 1, addPart.lastIndexOf("<"));
+        }
+        addPart = renumberBookmarks(stripSectPr(addPart), nextId, control);
+
+        // only paragraphs (which are split) and the body, table cell or
+        // content control levels take block content, not e.g. table rows
+        if (!path.acceptsBlockContent()) {
+          throw new MergeException(MergePhase.BUILD_BODY,
+              "illegal position for insertion at bookmark '" + name + "'", null);
+        }
+        if ("w:p".equals(path.parent())) {
+          // the section break moves to the last part of the split paragraph
+          int pOpen = path.parentStart();
+          int[] sectPr = BodyXml.paragraphSectPr(mainPart, pOpen);
+          if (sectPr == null) {
+            sb.append(mainPart, copied, tagEnd);
+          } else if (pOpen < copied) {
+            // split before, the section break is in the last continuation
+            sb.delete(movedSectPr, movedSectPr + sectPr[1] - sectPr[0]);
+            sb.append(mainPart, copied, tagEnd);
+          } else {
+            sb.append(mainPart, copied, sectPr[0]).append(mainPart, sectPr[1], tagEnd);
+          }
+          sb.append("</w:p>").append(addPart);
+          if (sectPr != null) {
+            movedSectPr = sb.length() + sectPr[0] - pOpen;
+          }
+          sb.append(BodyXml.paragraphReopen(mainPart, pOpen));
+        } else {
+          sb.append(mainPart, copied, tagEnd).append(addPart);
+        }
+        copied = tagEnd;
+      }
+      ind1 = mainPart.indexOf("<w:bookmarkStart", tagEnd);
+    }
+    sb.append(mainPart, copied, mainPart.length());
+
+    if (found.size() < addBodies.size()) {
+      ArrayList<String> missing = new ArrayList<String>(addBodies.keySet());
+      missing.removeAll(found);
+      throw new MergeException(MergePhase.BUILD_BODY, "bookmarks not found: " + missing, null);
+    }
+
+    buildBody(mainBody, targetPrefixParts, sb.toString(), control);
+  }
+
+  /**
+   * Adds the namespace declarations of the 'xml-fragment' start tag of the
+   * given body xml to the given map.<br>
+   * <br>
+   */
+  private static void collectNamespaces(String strBody, Map<String, String> targetPrefixParts) {
+    String prefix = strBody.substring(0, strBody.indexOf(">") + 1);
+    String[] prefixPartsArray = prefix.split(" ");
+    ArrayList<String> prefixParts = new ArrayList<String>(Arrays.asList(prefixPartsArray));
+    // remove <xml-fragment (first element) & remove ">" from last tag
+    prefixParts.remove(0);
+    if (prefixParts.size() > 0) {
+      String lastElement = prefixParts.remove(prefixParts.size() - 1);
+      if (lastElement.endsWith(">")) {
+        lastElement = lastElement.substring(0, lastElement.length() - 1);
+      }
+      prefixParts.add(lastElement);
+    }
+
+    for (String pt : prefixParts) {
+      String[] splt = pt.split("=");
+      targetPrefixParts.put(splt[0], splt[1]);
+    }
+  }
+
+  /**
+   * Scans the bookmark ids of the given body xml.<br>
+   * <br>
+   *
+   * @return the id following the highest id in use
+   */
+  private static int nextBookmarkId(String mainPart, MergeControl control) throws MergeCancelledException {
+    int nextId = 0;
+    int ind1 = mainPart.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      control.checkpoint(MergePhase.BUILD_BODY);
+      int tagEnd = mainPart.indexOf("/>", ind1);
+      int idStart = mainPart.indexOf("id=\"", ind1);
+      if (tagEnd > -1 && idStart > -1 && idStart < tagEnd) {
+        idStart += 4;
+        String id = mainPart.substring(idStart, mainPart.indexOf("\"", idStart));
+        try {
+          nextId = Math.max(nextId, Integer.parseInt(id) + 1);
+        } catch (NumberFormatException e) {
+          // MUST NOT HAPPEN
+        }
+      }
+      ind1 = mainPart.indexOf("<w:bookmarkStart", ind1 + 1);
+    }
+    return nextId;
+  }
+
+  /**
+   * Gives the bookmarks of the given body xml new ids, starting at nextId[0].
+   * nextId[0] is advanced accordingly.<br>
+   * <br>
+   *
+   * @return the xml with new bookmark ids
+   */
+  private static String renumberBookmarks(String addPart1, int[] nextId, MergeControl control)
+      throws MergeCancelledException {
+    int ind1 = addPart1.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      control.checkpoint(MergePhase.BUILD_BODY);
+      int tagEnd = addPart1.indexOf("/>", ind1);
+      int idStart = addPart1.indexOf("id=\"", ind1);
+      if (tagEnd > -1 && idStart > -1 && idStart < tagEnd) {
+        idStart += 4;
+        int idEnd = addPart1.indexOf("\"", idStart);
+        String currentId = addPart1.substring(idStart, idEnd);
+
+        // find corresponding bookmarkEnd
+        int ind3 = addPart1.indexOf("<w:bookmarkEnd", idEnd);
+        while (ind3 > -1) {
+          control.checkpoint(MergePhase.BUILD_BODY);
+          int endTagEnd = addPart1.indexOf("/>", ind3);
+          if (endTagEnd < 0) {
+            break;
+          }
+          int endIdStart = addPart1.indexOf("id=\"", ind3);
+          if (endIdStart > -1 && endIdStart < endTagEnd) {
+            endIdStart += 4;
+            int endIdEnd = addPart1.indexOf("\"", endIdStart);
+            if (currentId.equals(addPart1.substring(endIdStart, endIdEnd))) {
+              // change Ids of start and end to next id
+              String p1 = addPart1.substring(0, idStart);
+              String p2 = addPart1.substring(idEnd, endIdStart);
+              String p3 = addPart1.substring(endIdEnd);
+              addPart1 = p1 + nextId[0] + p2 + nextId[0] + p3;
+              nextId[0]++;
+              break;
+            }
+          }
+          ind3 = addPart1.indexOf("<w:bookmarkEnd", endTagEnd);
+        }
+      }
+
+      ind1 = addPart1.indexOf("<w:bookmarkStart", ind1 + 1);
+    }
+    return addPart1;
+  }
+
+  /**
+   * Removes the section properties on the top level of the given body xml.
+   * <br>
+   * <br>
+   */
+  private static String stripSectPr(String addPart) {
+    StringBuilder sb = new StringBuilder(addPart.length());
+    int copied = 0;
+    for (int[] element : BodyXml.topLevelElements(addPart, 0, addPart.length())) {
+      if (addPart.startsWith("<w:sectPr", element[0])) {
+        sb.append(addPart, copied, element[0]);
+        copied = element[1];
+      }
+    }
+    return sb.append(addPart, copied, addPart.length()).toString();
+  }
+
+  /**
+   * Parses the given body content with the given namespace declarations and
+   * sets it as content of mainBody.<br>
+   * <br>
+   */
+  private static void buildBody(CTBody mainBody, Map<String, String> targetPrefixParts, String content,
+      MergeControl control) throws Exception {
+    String prefix = "<xml-fragment";
+    for (String key : targetPrefixParts.keySet()) {
+      prefix += " " + key + "=" + targetPrefixParts.get(key);
+    }
+    prefix += ">";
+
+    String fullXml = prefix + content + "</xml-fragment>";
+
+    control.checkpoint(MergePhase.BUILD_BODY);
+    CTBody makeBody = CTBody.Factory.parse(fullXml);
+
+    // the new body must only contain one SectPtr part; we'll keep the first one we
+    // find
+    XmlCursor cur = makeBody.newCursor();
+    boolean foundOneAlready = false;
+    if (cur.toFirstChild()) {
+      while (cur.toNextSibling()) {
+        if (cur.getObject() instanceof CTSectPr) {
+          if (foundOneAlready) {
+            cur.removeXml();
+          } else {
+            foundOneAlready = true;
+          }
+        }
+      }
+    }
+
+    mainBody.set(makeBody);
+  }
+}
@@ -0,0 +1,156 @@
+package app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The raw entries of a docx package, read into memory without building a
+ * model. Used where whole packages are processed on the byte level (see
+ * {@link TemplateFiller}, {@link DocxSplitter}).<br>
+ *
+ */
+final class DocxPackage {
+  final static String CONTENT_TYPES_PART = "[Content_Types].xml";
+  final static String REL_TYPE_OFFICE_DOCUMENT = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument";
+
+  /** the uncompressed entries in the order of the zip file */
+  final LinkedHashMap<String, byte[]> entries;
+  final String mainPartName;
+  final String mainPartDir;
+  final String mainRelsPartName;
+
+  private DocxPackage(LinkedHashMap<String, byte[]> entries, String mainPartName) {
+    this.entries = entries;
+    this.mainPartName = mainPartName;
+    this.mainPartDir = mainPartName.substring(0, mainPartName.lastIndexOf('/') + 1);
+    this.mainRelsPartName = relsPartName(mainPartName);
+  }
+
+  /**
+   * Reads the given package.<br>
+   * <br>
+   *
+   * @param file the docx file
+   * @return the package
+   * @throws IOException if the file can't be read or lacks the main document
+   *                     part, its relations or the content types
+   */
+  static DocxPackage read(File file) throws IOException {
+    LinkedHashMap<String, byte[]> entries = ZipSegmentWriter.readEntries(file);
+    DocxPackage pkg = new DocxPackage(entries, findMainPart(entries));
+    if (!entries.containsKey(CONTENT_TYPES_PART)) {
+      throw new IOException(file + " lacks " + CONTENT_TYPES_PART);
+    }
+    if (!entries.containsKey(pkg.mainRelsPartName)) {
+      throw new IOException(file + " lacks " + pkg.mainRelsPartName);
+    }
+    return pkg;
+  }
+
+  /**
+   * Returns the given entry decoded as UTF-8.<br>
+   * <br>
+   *
+   * @param name the name of the entry
+   * @return the content of the entry or null if it doesn't exist
+   */
+  String getString(String name) {
+    byte[] data = entries.get(name);
+    return data == null ? null : new String(data, ZipSegmentWriter.UTF8);
+  }
+
+  /**
+   * Returns the relations of the main document part.<br>
+   * <br>
+   *
+   * @return the relation tags, each as array of id, type, target (resolved to
+   *         an entry name for internal relations) and the tag itself
+   */
+  List<String[]> getMainRelations() {
+    return getRelations(mainRelsPartName);
+  }
+
+  /**
+   * Returns the relations of the given relationship part.<br>
+   * <br>
+   *
+   * @param relsPartName the name of the relationship part, e.g.
+   *                     'word/_rels/header1.xml.rels'
+   * @return the relation tags, each as array of id, type, target (resolved to
+   *         an entry name for internal relations) and the tag itself
+   */
+  List<String[]> getRelations(String relsPartName) {
+    List<String[]> result = new ArrayList<String[]>();
+    String rels = getString(relsPartName);
+    if (rels == null) {
+      return result;
+    }
+    String dir = relsPartName.substring(0, relsPartName.lastIndexOf("_rels/"));
+    int ind1 = rels.indexOf("<Relationship ");
+    while (ind1 > -1) {
+      int ind2 = rels.indexOf(">", ind1) + 1;
+      String tag = rels.substring(ind1, ind2);
+      String target = getAttribute(tag, "Target");
+      if (!"External".equals(getAttribute(tag, "TargetMode"))) {
+        target = PreflightScanner.resolveTarget(dir, target);
+      }
+      result.add(new String[] { getAttribute(tag, "Id"), getAttribute(tag, "Type"), target, tag });
+      ind1 = rels.indexOf("<Relationship ", ind2);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the name of the relationship part of the given part.<br>
+   * <br>
+   *
+   * @param partName the name of the part
+   * @return the name of its relationship part
+   */
+  static String relsPartName(String partName) {
+    int slash = partName.lastIndexOf('/');
+    return partName.substring(0, slash + 1) + "_rels/" + partName.substring(slash + 1) + ".rels";
+  }
+
+  /**
+   * Finds the name of the main document part in the package relations.<br>
+   * <br>
+   */
+  private static String findMainPart(LinkedHashMap<String, byte[]> entries) throws IOException {
+    byte[] rels = entries.get("_rels/.rels");
+    if (rels != null) {
+      String strRels = new String(rels, ZipSegmentWriter.UTF8);
+      int ind1 = strRels.indexOf(REL_TYPE_OFFICE_DOCUMENT);
+      if (ind1 > -1) {
+        int tagStart = strRels.lastIndexOf("<", ind1);
+        int tagEnd = strRels.indexOf(">", ind1);
+        String target = getAttribute(strRels.substring(tagStart, tagEnd), "Target");
+        String name = PreflightScanner.resolveTarget("", target);
+        if (entries.containsKey(name)) {
+          return name;
+        }
+      }
+    }
+    throw new IOException("package has no main document part");
+  }
+
+  /**
+   * Reads the value of the given attribute from a single tag.<br>
+   * <br>
+   *
+   * @param tag       the tag
+   * @param attribute the qualified name of the attribute
+   * @return the value or null if the tag has no such attribute
+   */
+  static String getAttribute(String tag, String attribute) {
+    int ind1 = tag.indexOf(" " + attribute + "=\"");
+    if (ind1 < 0) {
+      return null;
+    }
+    ind1 += attribute.length() + 3;
+    return tag.substring(ind1, tag.indexOf("\"", ind1));
+  }
+}
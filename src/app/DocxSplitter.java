@@ -0,0 +1,361 @@
+package app;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits a document into several documents, the reverse of a merge. The body
+ * is scanned once for split points, the pieces are written concurrently
+ * afterwards. Possible split points are:
+ * <ul>
+ * <li>section breaks ('w:sectPr' inside a paragraph), a piece ends after
+ * them</li>
+ * <li>paragraphs of a given heading style, a piece starts with them</li>
+ * <li>given bookmarks, a piece starts with the top level element containing
+ * their start</li>
+ * </ul>
+ * Every piece keeps only the relations to pictures, hyperlinks, embedded
+ * objects and altChunks its content references. All other parts are the same
+ * for every piece, they are compressed once and copied as raw bytes.<br>
+ * An instance can be shared between threads. It must be closed to release its
+ * pool.<br>
+ *
+ */
+public class DocxSplitter implements Closeable {
+  /** relation types that are only kept if a piece references them */
+  private final static String[] CONTENT_REL_TYPES = { "/image", "/hyperlink", "/aFChunk", "/oleObject", "/package",
+      "/chart", "/diagramData", "/diagramLayout", "/diagramQuickStyle", "/diagramColors", "/diagramDrawing",
+      "/video", "/audio", "/media", "/control", "/subDocument" };
+
+  private final boolean atSectionBreaks;
+  private final String headingStyle;
+  private final Set<String> bookmarkNames;
+  private final ExecutorService pool;
+
+  /**
+   * Creates a splitter.<br>
+   * <br>
+   *
+   * @param atSectionBreaks true, if documents are split after section breaks
+   * @param headingStyle    style id of the paragraphs a piece starts with (e.g.
+   *                        "Heading1"), null if not used
+   * @param bookmarkNames   names of the bookmarks a piece starts at, may be
+   *                        null
+   * @param threads         number of threads used to write the pieces
+   */
+  public DocxSplitter(boolean atSectionBreaks, String headingStyle, Set<String> bookmarkNames, int threads) {
+    this.atSectionBreaks = atSectionBreaks;
+    this.headingStyle = headingStyle;
+    this.bookmarkNames = bookmarkNames == null ? Collections.<String>emptySet()
+        : Collections.unmodifiableSet(new HashSet<String>(bookmarkNames));
+    this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "docx-splitter");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Splits the given document. The n-th piece (starting at 0) is written to the
+   * file named by formatting the given pattern with n.<br>
+   * <br>
+   *
+   * @param input           the document to split
+   * @param outputDir       directory the pieces are written to
+   * @param fileNamePattern pattern for the file names, e.g. "chapter-%03d.docx"
+   * @return the written files in the order of the pieces
+   * @throws IOException if the document can't be read or a piece can't be
+   *                     written
+   */
+  public List<File> split(File input, File outputDir, String fileNamePattern) throws IOException {
+    final DocxPackage pkg = DocxPackage.read(input);
+    final String xml = pkg.getString(pkg.mainPartName);
+
+    int bodyStart = BodyXml.bodyContentStart(xml);
+    int bodyEnd = BodyXml.bodyContentEnd(xml);
+    if (bodyStart < 0 || bodyEnd < bodyStart) {
+      throw new IOException(input + " has no body");
+    }
+    final String prefix = xml.substring(0, bodyStart);
+    final String suffix = xml.substring(bodyEnd);
+
+    List<int[]> elements = BodyXml.topLevelElements(xml, bodyStart, bodyEnd);
+    String bodySectPr = "";
+    if (!elements.isEmpty() && xml.startsWith("<w:sectPr", elements.get(elements.size() - 1)[0])) {
+      int[] last = elements.remove(elements.size() - 1);
+      bodySectPr = xml.substring(last[0], last[1]);
+    }
+
+    final String finalSectPr = bodySectPr;
+    final List<String> texts = new ArrayList<String>();
+    for (int[] element : elements) {
+      texts.add(xml.substring(element[0], element[1]));
+    }
+
+    // the section properties that apply to each element
+    final String[] sectPrs = new String[texts.size()];
+    String current = bodySectPr;
+    for (int i = texts.size() - 1; i >= 0; i--) {
+      String sectPr = paragraphSectPr(texts.get(i));
+      if (sectPr != null) {
+        current = sectPr;
+      }
+      sectPrs[i] = current;
+    }
+
+    // scan once for the split points
+    final List<int[]> pieces = new ArrayList<int[]>();
+    int pieceStart = 0;
+    for (int i = 0; i < texts.size(); i++) {
+      String text = texts.get(i);
+      if (i > pieceStart && (isHeading(text) || containsBookmark(text))) {
+        pieces.add(new int[] { pieceStart, i });
+        pieceStart = i;
+      }
+      if (atSectionBreaks && paragraphSectPr(text) != null) {
+        pieces.add(new int[] { pieceStart, i + 1 });
+        pieceStart = i + 1;
+      }
+    }
+    if (pieceStart < texts.size() || pieces.isEmpty()) {
+      pieces.add(new int[] { pieceStart, texts.size() });
+    }
+
+    final Map<String, ZipSegmentWriter.Part> sharedParts = new HashMap<String, ZipSegmentWriter.Part>();
+    for (Map.Entry<String, byte[]> entry : pkg.entries.entrySet()) {
+      String name = entry.getKey();
+      if (!name.equals(pkg.mainPartName) && !name.equals(pkg.mainRelsPartName)
+          && !name.equals(DocxPackage.CONTENT_TYPES_PART)) {
+        sharedParts.put(name, ZipSegmentWriter.Part.compress(name, entry.getValue()));
+      }
+    }
+
+    // relations of all other parts, by the name of their source part
+    final Map<String, List<String[]>> partRelations = new HashMap<String, List<String[]>>();
+    for (String name : pkg.entries.keySet()) {
+      if (name.endsWith(".rels") && !name.equals(pkg.mainRelsPartName)) {
+        int relsDir = name.lastIndexOf("_rels/");
+        String source = name.substring(0, relsDir) + name.substring(relsDir + 6, name.length() - 5);
+        partRelations.put(source, pkg.getRelations(name));
+      }
+    }
+
+    List<File> files = new ArrayList<File>();
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int p = 0; p < pieces.size(); p++) {
+      final int[] piece = pieces.get(p);
+      final File file = new File(outputDir, String.format(fileNamePattern, p));
+      files.add(file);
+      futures.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          StringBuilder body = new StringBuilder();
+          for (int i = piece[0]; i < piece[1]; i++) {
+            String text = texts.get(i);
+            if (i == piece[1] - 1) {
+              // the section break of the last paragraph becomes the one of the body
+              text = removeParagraphSectPr(text);
+            }
+            body.append(text);
+          }
+          body.append(piece[1] > piece[0] ? sectPrs[piece[1] - 1] : finalSectPr);
+
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+          try {
+            writePiece(pkg, prefix + body + suffix, body, sharedParts, partRelations, out);
+          } finally {
+            out.close();
+          }
+          return null;
+        }
+      }));
+    }
+
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while splitting " + input, e);
+      } catch (ExecutionException e) {
+        throw new IOException("could not write piece of " + input, e.getCause());
+      }
+    }
+
+    return files;
+  }
+
+  /**
+   * Writes a single piece. Relations to content that the piece doesn't
+   * reference are dropped together with their parts, unless another part that
+   * is kept (e.g. a header) references the part as well.<br>
+   * <br>
+   */
+  private void writePiece(DocxPackage pkg, String mainXml, CharSequence body,
+      Map<String, ZipSegmentWriter.Part> sharedParts, Map<String, List<String[]>> partRelations,
+      OutputStream out) throws IOException {
+    Set<String> referenced = BodyXml.referencedRelationIds(body);
+
+    String rels = pkg.getString(pkg.mainRelsPartName);
+    Set<String> droppedTargets = new HashSet<String>();
+    Set<String> keptTargets = new HashSet<String>();
+    for (String[] rel : pkg.getMainRelations()) {
+      if (!referenced.contains(rel[0]) && isContentRelation(rel[1])) {
+        rels = rels.replace(rel[3], "");
+        droppedTargets.add(rel[2]);
+      } else {
+        keptTargets.add(rel[2]);
+      }
+    }
+    droppedTargets.removeAll(keptTargets);
+
+    // keeping a part keeps the parts it references, until nothing changes
+    boolean changed = !droppedTargets.isEmpty();
+    while (changed) {
+      changed = false;
+      for (Map.Entry<String, List<String[]>> entry : partRelations.entrySet()) {
+        if (droppedTargets.contains(entry.getKey())) {
+          continue;
+        }
+        for (String[] rel : entry.getValue()) {
+          changed |= droppedTargets.remove(rel[2]);
+        }
+      }
+    }
+
+    Set<String> skipped = new HashSet<String>();
+    String contentTypes = pkg.getString(DocxPackage.CONTENT_TYPES_PART);
+    for (String target : droppedTargets) {
+      skipped.add(target);
+      skipped.add(DocxPackage.relsPartName(target));
+
+      int ind1 = contentTypes.indexOf("PartName=\"/" + target + "\"");
+      if (ind1 > -1) {
+        int tagStart = contentTypes.lastIndexOf("<", ind1);
+        contentTypes = contentTypes.substring(0, tagStart) + contentTypes.substring(BodyXml.tagEnd(contentTypes, tagStart));
+      }
+    }
+
+    ZipSegmentWriter writer = new ZipSegmentWriter(out);
+    try {
+      for (String name : pkg.entries.keySet()) {
+        if (skipped.contains(name)) {
+          continue;
+        }
+        if (name.equals(pkg.mainPartName)) {
+          writer.write(name, mainXml.getBytes(ZipSegmentWriter.UTF8));
+        } else if (name.equals(pkg.mainRelsPartName)) {
+          writer.write(name, rels.getBytes(ZipSegmentWriter.UTF8));
+        } else if (name.equals(DocxPackage.CONTENT_TYPES_PART)) {
+          writer.write(name, contentTypes.getBytes(ZipSegmentWriter.UTF8));
+        } else {
+          writer.write(sharedParts.get(name));
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Shuts down the pool of this splitter.<br>
+   * <br>
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  private static boolean isContentRelation(String type) {
+    if (type != null) {
+      for (String contentType : CONTENT_REL_TYPES) {
+        if (type.endsWith(contentType)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean isHeading(String element) {
+    if (headingStyle == null || !isParagraph(element)) {
+      return false;
+    }
+    int pPrEnd = element.indexOf("</w:pPr>");
+    int ind1 = element.indexOf("<w:pStyle ");
+    return ind1 > -1 && ind1 < pPrEnd
+        && headingStyle.equals(DocxPackage.getAttribute(element.substring(ind1, BodyXml.tagEnd(element, ind1)),
+            "w:val"));
+  }
+
+  private boolean containsBookmark(String element) {
+    if (bookmarkNames.isEmpty()) {
+      return false;
+    }
+    int ind1 = element.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      int tagEnd = BodyXml.tagEnd(element, ind1);
+      if (bookmarkNames.contains(DocxPackage.getAttribute(element.substring(ind1, tagEnd), "w:name"))) {
+        return true;
+      }
+      ind1 = element.indexOf("<w:bookmarkStart", tagEnd);
+    }
+    return false;
+  }
+
+  private static boolean isParagraph(String element) {
+    return element.startsWith("<w:p>") || element.startsWith("<w:p ");
+  }
+
+  /**
+   * Returns the section properties of a paragraph ending a section.<br>
+   * <br>
+   *
+   * @return the 'w:sectPr' element or null if the element doesn't end a section
+   */
+  private static String paragraphSectPr(String element) {
+    int[] range = paragraphSectPrRange(element);
+    return range == null ? null : element.substring(range[0], range[1]);
+  }
+
+  private static String removeParagraphSectPr(String element) {
+    int[] range = paragraphSectPrRange(element);
+    return range == null ? element : element.substring(0, range[0]) + element.substring(range[1]);
+  }
+
+  private static int[] paragraphSectPrRange(String element) {
+    if (!isParagraph(element)) {
+      return null;
+    }
+    int pPrEnd = element.indexOf("</w:pPr>");
+    int ind1 = element.indexOf("<w:sectPr");
+    if (ind1 < 0 || ind1 > pPrEnd) {
+      return null;
+    }
+    int tagEnd = BodyXml.tagEnd(element, ind1);
+    if (element.charAt(tagEnd - 2) == '/') {
+      return new int[] { ind1, tagEnd };
+    }
+    return new int[] { ind1, element.indexOf("</w:sectPr>", ind1) + 11 };
+  }
+}
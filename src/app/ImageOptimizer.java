@@ -0,0 +1,505 @@
+package app;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.poi.xwpf.usermodel.Document;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
+
+/**
+ * Optional media optimization stage for merges. Pictures are downsampled to
+ * the resolution they need at their displayed size in the document and are
+ * recompressed afterwards. Pictures that need no downsampling, cannot be
+ * decoded, whose displayed size is unknown or that would not get any smaller
+ * are passed through unchanged, unless recompression of unscaled pictures is
+ * enabled explicitly.<br>
+ * The pictures of one document are processed in parallel on the pool of this
+ * optimizer, so an instance should be created once and be reused for many
+ * merges. It must be closed to release the pool. Only the pictures currently
+ * processed are loaded, and they are decoded with subsampling close to their
+ * target size, so large pictures are never held at full resolution.<br>
+ *
+ */
+public class ImageOptimizer implements Closeable {
+  /** the default target resolution in dots per inch */
+  public final static int DEFAULT_TARGET_DPI = 150;
+
+  /** the default jpeg quality (0.0 - 1.0) */
+  public final static float DEFAULT_JPEG_QUALITY = 0.8f;
+
+  /** interval in which the merge control is checked while waiting for pictures */
+  private final static long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  /** english metric units per inch, as used by the drawing markup */
+  private final static double EMU_PER_INCH = 914400.0;
+
+  /** the whole picture in the units of 'a:srcRect' (1/1000 percent) */
+  private final static long SRC_RECT_WHOLE = 100000;
+
+  private final int targetDpi;
+  private final float jpegQuality;
+  private final boolean recompressUnscaled;
+  private final ExecutorService pool;
+
+  /**
+   * Creates an optimizer with the default settings and one thread per available
+   * processor.<br>
+   * <br>
+   */
+  public ImageOptimizer() {
+    this(DEFAULT_TARGET_DPI, DEFAULT_JPEG_QUALITY, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates an optimizer which only touches pictures that are downsampled.<br>
+   * <br>
+   *
+   * @param targetDpi   resolution the pictures are downsampled to at their
+   *                    displayed size
+   * @param jpegQuality quality used for jpeg recompression (0.0 - 1.0)
+   * @param threads     number of threads used to process pictures
+   */
+  public ImageOptimizer(int targetDpi, float jpegQuality, int threads) {
+    this(targetDpi, jpegQuality, false, threads);
+  }
+
+  /**
+   * Creates an optimizer.<br>
+   * <br>
+   *
+   * @param targetDpi          resolution the pictures are downsampled to at
+   *                           their displayed size
+   * @param jpegQuality        quality used for jpeg recompression (0.0 - 1.0)
+   * @param recompressUnscaled if true, pictures that need no downsampling are
+   *                           recompressed as well (lossy, opaque pictures
+   *                           become jpeg); otherwise they pass unchanged
+   * @param threads            number of threads used to process pictures
+   */
+  public ImageOptimizer(int targetDpi, float jpegQuality, boolean recompressUnscaled, int threads) {
+    if (targetDpi <= 0) {
+      throw new IllegalArgumentException("targetDpi must be positive: " + targetDpi);
+    }
+    if (jpegQuality < 0f || jpegQuality > 1f) {
+      throw new IllegalArgumentException("jpegQuality must be between 0 and 1: " + jpegQuality);
+    }
+    this.targetDpi = targetDpi;
+    this.jpegQuality = jpegQuality;
+    this.recompressUnscaled = recompressUnscaled;
+    this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "image-optimizer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Optimizes the given pictures. The displayed size of every picture is read
+   * from the drawing markup of the given body. The result contains one entry
+   * per given picture in the same order.<br>
+   * <br>
+   *
+   * @param pictures the pictures to optimize
+   * @param bodyXml  the xml text of the body the pictures are displayed in
+   * @param report   receives the number of saved bytes, may be null
+   * @return the optimized (or unchanged) pictures
+   * @throws IOException if the processing of a picture fails unexpectedly
+   */
+  public List<OptimizedPicture> optimize(List<XWPFPictureData> pictures, String bodyXml, MergeReport report)
+      throws IOException {
+    try {
+      return optimize(pictures, bodyXml, report, MergeControl.NONE);
+    } catch (MergeCancelledException e) {
+      // MUST NOT HAPPEN
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Optimizes the given pictures. The displayed size of every picture is read
+   * from the drawing markup of the given body. The result contains one entry
+   * per given picture in the same order. Pictures that are still processed when
+   * the merge is stopped are cancelled.<br>
+   * <br>
+   *
+   * @param pictures the pictures to optimize
+   * @param bodyXml  the xml text of the body the pictures are displayed in
+   * @param report   receives the number of saved bytes, may be null
+   * @param control  deadline and cancellation token of the merge
+   * @return the optimized (or unchanged) pictures
+   * @throws IOException             if the processing of a picture fails
+   *                                 unexpectedly
+   * @throws MergeCancelledException if the merge is stopped
+   */
+  public List<OptimizedPicture> optimize(List<XWPFPictureData> pictures, String bodyXml, MergeReport report,
+      MergeControl control) throws IOException, MergeCancelledException {
+    HashMap<String, long[]> extents = collectExtents(bodyXml);
+
+    List<Future<OptimizedPicture>> futures = new ArrayList<Future<OptimizedPicture>>();
+    final int[] originalSizes = new int[pictures.size()];
+    for (final XWPFPictureData pic : pictures) {
+      final int index = futures.size();
+      final int type = pic.getPictureType();
+      final long[] extent = extents.get(pic.getPackageRelationship().getId());
+      futures.add(pool.submit(new Callable<OptimizedPicture>() {
+        @Override
+        public OptimizedPicture call() throws Exception {
+          // loaded by the task, so only the pictures in process are in memory
+          byte[] data = pic.getData();
+          originalSizes[index] = data.length;
+          return optimize(data, type, extent);
+        }
+      }));
+    }
+
+    List<OptimizedPicture> result = new ArrayList<OptimizedPicture>();
+    boolean done = false;
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        OptimizedPicture opt = null;
+        while (opt == null) {
+          control.checkpoint(MergePhase.TRANSFER_PICTURES);
+          try {
+            opt = futures.get(i).get(Math.min(control.remainingNanos(), POLL_NANOS), TimeUnit.NANOSECONDS);
+          } catch (TimeoutException e) {
+            // check the control again
+          }
+        }
+        if (report != null) {
+          report.addImage(originalSizes[i], opt.getData().length);
+        }
+        result.add(opt);
+      }
+      done = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while optimizing pictures", e);
+    } catch (ExecutionException e) {
+      throw new IOException("could not optimize picture", e.getCause());
+    } finally {
+      if (!done) {
+        for (Future<OptimizedPicture> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Optimizes a single picture.<br>
+   * <br>
+   *
+   * @param data   the picture data
+   * @param type   the picture type (see {@link Document})
+   * @param extent the displayed width and height in EMU, may be null if unknown
+   * @return the optimized picture or the given data if it can't be optimized
+   * @throws IOException if encoding fails
+   */
+  OptimizedPicture optimize(byte[] data, int type, long[] extent) throws IOException {
+    OptimizedPicture unchanged = new OptimizedPicture(data, type);
+    if (extent == null || (type != Document.PICTURE_TYPE_JPEG && type != Document.PICTURE_TYPE_PNG
+        && type != Document.PICTURE_TYPE_DIB && type != 0)) {
+      // vector formats and pictures without a known size stay as they are
+      return unchanged;
+    }
+
+    ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(data));
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+    if (!readers.hasNext()) {
+      // no reader available for this format
+      iis.close();
+      return unchanged;
+    }
+    ImageReader reader = readers.next();
+    BufferedImage image;
+    double scale;
+    try {
+      reader.setInput(iis, true, true);
+      int width = reader.getWidth(0);
+      int height = reader.getHeight(0);
+      scale = scale(width, height, extent);
+      if (scale >= 1.0 && !recompressUnscaled) {
+        return unchanged;
+      }
+
+      // subsampling while decoding keeps at least twice the target size, the
+      // rest is left to the smooth downsampling
+      ImageReadParam param = reader.getDefaultReadParam();
+      int subsampling = Math.max(1, (int) (0.5 / scale));
+      param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+      image = reader.read(0, param);
+      scale *= (double) width / image.getWidth();
+    } catch (IOException e) {
+      return unchanged;
+    } finally {
+      reader.dispose();
+      iis.close();
+    }
+
+    if (scale < 1.0) {
+      image = downsample(image, Math.max(1, (int) Math.round(image.getWidth() * scale)),
+          Math.max(1, (int) Math.round(image.getHeight() * scale)));
+    }
+
+    OptimizedPicture opt;
+    if (image.getColorModel().hasAlpha()) {
+      opt = new OptimizedPicture(encodePng(image), Document.PICTURE_TYPE_PNG);
+    } else {
+      opt = new OptimizedPicture(encodeJpeg(image), Document.PICTURE_TYPE_JPEG);
+    }
+
+    return opt.getData().length < data.length ? opt : unchanged;
+  }
+
+  /**
+   * Returns the factor a picture of the given size is scaled with to get the
+   * target resolution at the given displayed size, at most 1.<br>
+   * <br>
+   */
+  private double scale(int width, int height, long[] extent) {
+    int targetWidth = (int) Math.ceil(extent[0] / EMU_PER_INCH * targetDpi);
+    int targetHeight = (int) Math.ceil(extent[1] / EMU_PER_INCH * targetDpi);
+    if (targetWidth <= 0 || targetHeight <= 0 || width <= 0 || height <= 0) {
+      return 1.0;
+    }
+    return Math.min(1.0, Math.max((double) targetWidth / width, (double) targetHeight / height));
+  }
+
+  /**
+   * Scans the drawing markup of the given body and collects the displayed size
+   * of every embedded picture. For a cropped picture ('a:srcRect') this is the
+   * size the whole picture would have. If a picture is displayed several times,
+   * the largest size is kept.<br>
+   * <br>
+   *
+   * @param bodyXml the xml text of the body
+   * @return a map from relation id to width and height in EMU
+   */
+  static HashMap<String, long[]> collectExtents(String bodyXml) {
+    HashMap<String, long[]> result = new HashMap<String, long[]>();
+
+    int ind1 = bodyXml.indexOf("<w:drawing");
+    while (ind1 > -1) {
+      int end = bodyXml.indexOf("</w:drawing>", ind1);
+      if (end < 0) {
+        break;
+      }
+
+      long cx = parseLongAttribute(bodyXml, "<wp:extent", "cx", ind1, end);
+      long cy = parseLongAttribute(bodyXml, "<wp:extent", "cy", ind1, end);
+      int srcRect = bodyXml.indexOf("<a:srcRect", ind1);
+      if (srcRect > -1 && srcRect < end) {
+        String tag = bodyXml.substring(srcRect, bodyXml.indexOf(">", srcRect) + 1);
+        cx = uncrop(cx, cropValue(tag, "l"), cropValue(tag, "r"));
+        cy = uncrop(cy, cropValue(tag, "t"), cropValue(tag, "b"));
+      }
+      int blip = bodyXml.indexOf("<a:blip ", ind1);
+      if (cx > 0 && cy > 0 && blip > -1 && blip < end) {
+        int ind2 = bodyXml.indexOf("r:embed=\"", blip);
+        if (ind2 > -1 && ind2 < end) {
+          ind2 += 9;
+          String id = bodyXml.substring(ind2, bodyXml.indexOf("\"", ind2));
+          long[] known = result.get(id);
+          if (known == null) {
+            result.put(id, new long[] { cx, cy });
+          } else {
+            known[0] = Math.max(known[0], cx);
+            known[1] = Math.max(known[1], cy);
+          }
+        }
+      }
+
+      ind1 = bodyXml.indexOf("<w:drawing", end);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the size of a whole picture of which the given size is displayed
+   * after cropping the given parts (in 1/1000 percent) at both sides.<br>
+   * <br>
+   */
+  private static long uncrop(long size, long crop1, long crop2) {
+    long visible = SRC_RECT_WHOLE - crop1 - crop2;
+    if (size <= 0 || visible <= 0) {
+      return size;
+    }
+    return size * SRC_RECT_WHOLE / visible;
+  }
+
+  private static long cropValue(String tag, String attribute) {
+    String value = DocxPackage.getAttribute(tag, attribute);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Reads a numeric attribute of the first tag with the given name between
+   * start and end.<br>
+   * <br>
+   *
+   * @return the value or -1 if it could not be found
+   */
+  private static long parseLongAttribute(String xml, String tag, String attribute, int start, int end) {
+    int ind1 = xml.indexOf(tag, start);
+    if (ind1 < 0 || ind1 > end) {
+      return -1;
+    }
+    int tagEnd = xml.indexOf(">", ind1);
+    ind1 = xml.indexOf(" " + attribute + "=\"", ind1);
+    if (ind1 < 0 || ind1 > tagEnd) {
+      return -1;
+    }
+    ind1 += attribute.length() + 3;
+    try {
+      return Long.parseLong(xml.substring(ind1, xml.indexOf("\"", ind1)));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Downsamples the given image. The size is halved in several steps before the
+   * final step, bilinear interpolation alone produces artifacts for large
+   * factors.<br>
+   * <br>
+   */
+  private static BufferedImage downsample(BufferedImage image, int width, int height) {
+    int imageType = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    int w = image.getWidth();
+    int h = image.getHeight();
+    BufferedImage current = image;
+    do {
+      w = Math.max(width, w / 2);
+      h = Math.max(height, h / 2);
+
+      BufferedImage next = new BufferedImage(w, h, imageType);
+      Graphics2D g = next.createGraphics();
+      try {
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(current, 0, 0, w, h, null);
+      } finally {
+        g.dispose();
+      }
+      current = next;
+    } while (w != width || h != height);
+
+    return current;
+  }
+
+  private byte[] encodeJpeg(BufferedImage image) throws IOException {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_3BYTE_BGR
+        && image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+      BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = rgb.createGraphics();
+      try {
+        g.drawImage(image, 0, 0, null);
+      } finally {
+        g.dispose();
+      }
+      image = rgb;
+    }
+
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+    if (!writers.hasNext()) {
+      throw new IOException("no jpeg writer available");
+    }
+    ImageWriter writer = writers.next();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(jpegQuality);
+      writer.setOutput(ios);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+      ios.close();
+    }
+    return bos.toByteArray();
+  }
+
+  private static byte[] encodePng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    if (!ImageIO.write(image, "png", bos)) {
+      throw new IOException("no png writer available");
+    }
+    return bos.toByteArray();
+  }
+
+  /**
+   * Shuts down the pool of this optimizer.<br>
+   * <br>
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * The result of optimizing a single picture.<br>
+   *
+   */
+  public static class OptimizedPicture {
+    private final byte[] data;
+    private final int type;
+
+    OptimizedPicture(byte[] data, int type) {
+      this.data = data;
+      this.type = type;
+    }
+
+    /**
+     * @return the picture data
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    /**
+     * @return the picture type (see {@link Document})
+     */
+    public int getType() {
+      return type;
+    }
+  }
+}
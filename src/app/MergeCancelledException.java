@@ -0,0 +1,32 @@
+package app;
+
+/**
+ * Thrown if a merge is stopped because its deadline passed or it was
+ * cancelled.<br>
+ *
+ */
+public class MergeCancelledException extends MergeException {
+  private static final long serialVersionUID = 1L;
+
+  private final boolean deadlineExceeded;
+
+  /**
+   * Creates a new exception.<br>
+   * <br>
+   *
+   * @param phase            the phase the merge was stopped in
+   * @param deadlineExceeded true, if the deadline passed, false if the merge
+   *                         was cancelled
+   */
+  public MergeCancelledException(MergePhase phase, boolean deadlineExceeded) {
+    super(phase, deadlineExceeded ? "deadline exceeded" : "merge cancelled", null);
+    this.deadlineExceeded = deadlineExceeded;
+  }
+
+  /**
+   * @return true, if the deadline passed, false if the merge was cancelled
+   */
+  public boolean isDeadlineExceeded() {
+    return deadlineExceeded;
+  }
+}
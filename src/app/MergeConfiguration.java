@@ -0,0 +1,103 @@
+package app;
+
+/**
+ * Immutable configuration of a {@link DocxMerger}. Instances are created with
+ * a {@link Builder}.<br>
+ *
+ */
+public class MergeConfiguration {
+  /** the default size of the buffers used to copy parts */
+  public final static int DEFAULT_COPY_BUFFER_SIZE = 8192;
+
+  private final int copyBufferSize;
+  private final boolean stripGoBackBookmarks;
+  private final ImageOptimizer imageOptimizer;
+
+  private MergeConfiguration(Builder builder) {
+    this.copyBufferSize = builder.copyBufferSize;
+    this.stripGoBackBookmarks = builder.stripGoBackBookmarks;
+    this.imageOptimizer = builder.imageOptimizer;
+  }
+
+  /**
+   * @return a builder initialized with the default settings
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the size of the buffers used to copy parts
+   */
+  public int getCopyBufferSize() {
+    return copyBufferSize;
+  }
+
+  /**
+   * @return true, if the '_GoBack' bookmarks are removed from the documents to
+   *         be appended
+   */
+  public boolean isStripGoBackBookmarks() {
+    return stripGoBackBookmarks;
+  }
+
+  /**
+   * @return the image optimization stage or null if pictures are copied
+   *         unchanged
+   */
+  public ImageOptimizer getImageOptimizer() {
+    return imageOptimizer;
+  }
+
+  /**
+   * Builder for {@link MergeConfiguration}.<br>
+   *
+   */
+  public static class Builder {
+    private int copyBufferSize = DEFAULT_COPY_BUFFER_SIZE;
+    private boolean stripGoBackBookmarks = true;
+    private ImageOptimizer imageOptimizer = null;
+
+    private Builder() {
+    }
+
+    /**
+     * @param copyBufferSize the size of the buffers used to copy parts
+     * @return this builder
+     */
+    public Builder copyBufferSize(int copyBufferSize) {
+      if (copyBufferSize <= 0) {
+        throw new IllegalArgumentException("copyBufferSize must be positive: " + copyBufferSize);
+      }
+      this.copyBufferSize = copyBufferSize;
+      return this;
+    }
+
+    /**
+     * @param stripGoBackBookmarks true, if the '_GoBack' bookmarks are removed
+     *                             from the documents to be appended
+     * @return this builder
+     */
+    public Builder stripGoBackBookmarks(boolean stripGoBackBookmarks) {
+      this.stripGoBackBookmarks = stripGoBackBookmarks;
+      return this;
+    }
+
+    /**
+     * @param imageOptimizer the image optimization stage, null to copy pictures
+     *                       unchanged. The optimizer is not closed by the merger.
+     * @return this builder
+     */
+    public Builder imageOptimizer(ImageOptimizer imageOptimizer) {
+      this.imageOptimizer = imageOptimizer;
+      return this;
+    }
+
+    /**
+     * @return the configuration
+     */
+    public MergeConfiguration build() {
+      return new MergeConfiguration(this);
+    }
+  }
+}
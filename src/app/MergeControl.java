@@ -0,0 +1,76 @@
+package app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deadline and cancellation token of a merge. A merge checks its control at
+ * the phase boundaries and inside its long running loops and stops with a
+ * {@link MergeCancelledException} once the deadline passed or the token was
+ * cancelled. Instances are immutable.<br>
+ *
+ */
+public class MergeControl {
+  /** control without deadline, which can't be cancelled */
+  public final static MergeControl NONE = new MergeControl(Long.MAX_VALUE, false, null);
+
+  private final long deadlineNanos;
+  private final boolean hasDeadline;
+  private final CancellationToken token;
+
+  private MergeControl(long deadlineNanos, boolean hasDeadline, CancellationToken token) {
+    this.deadlineNanos = deadlineNanos;
+    this.hasDeadline = hasDeadline;
+    this.token = token;
+  }
+
+  /**
+   * Creates a control whose deadline is the given time from now.<br>
+   * <br>
+   *
+   * @param timeout the time the merge may take
+   * @param unit    the unit of the timeout
+   * @param token   token to cancel the merge, may be null
+   * @return the control
+   */
+  public static MergeControl withTimeout(long timeout, TimeUnit unit, CancellationToken token) {
+    return new MergeControl(System.nanoTime() + unit.toNanos(timeout), true, token);
+  }
+
+  /**
+   * Creates a control without deadline.<br>
+   * <br>
+   *
+   * @param token token to cancel the merge
+   * @return the control
+   */
+  public static MergeControl withToken(CancellationToken token) {
+    return new MergeControl(Long.MAX_VALUE, false, token);
+  }
+
+  /**
+   * Returns the time left until the deadline.<br>
+   * <br>
+   *
+   * @return the remaining nanoseconds, Long.MAX_VALUE if there is no deadline
+   */
+  public long remainingNanos() {
+    return hasDeadline ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+  }
+
+  /**
+   * Checks whether the merge may go on.<br>
+   * <br>
+   *
+   * @param phase the phase the merge is in
+   * @throws MergeCancelledException if the deadline passed or the merge was
+   *                                 cancelled
+   */
+  public void checkpoint(MergePhase phase) throws MergeCancelledException {
+    if (token != null && token.isCancelled()) {
+      throw new MergeCancelledException(phase, false);
+    }
+    if (hasDeadline && System.nanoTime() - deadlineNanos >= 0) {
+      throw new MergeCancelledException(phase, true);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package app;
+
+/**
+ * Thrown if a merge fails. The phase the merge was in when it failed is
+ * available via {@link #getPhase()}.<br>
+ *
+ */
+public class MergeException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final MergePhase phase;
+
+  /**
+   * Creates a new exception.<br>
+   * <br>
+   *
+   * @param phase   the phase the merge failed in
+   * @param message the detail message
+   * @param cause   the cause, may be null
+   */
+  public MergeException(MergePhase phase, String message, Throwable cause) {
+    super(message + " (phase " + phase + ")", cause);
+    this.phase = phase;
+  }
+
+  /**
+   * @return the phase the merge failed in
+   */
+  public MergePhase getPhase() {
+    return phase;
+  }
+}
@@ -0,0 +1,34 @@
+package app;
+
+/**
+ * The phases of a merge. Used to report where a merge failed.<br>
+ *
+ */
+public enum MergePhase {
+  /** waiting for an input package to be read (see {@link MergePipeline}) */
+  READ_INPUT,
+
+  /** removal of bookmarks that are only used by Word internally */
+  STRIP_BOOKMARKS,
+
+  /** cloning the package of the source document */
+  CLONE_PACKAGE,
+
+  /** copying the parts referenced by altChunks */
+  TRANSFER_ALTCHUNKS,
+
+  /** optimizing and copying the pictures */
+  TRANSFER_PICTURES,
+
+  /** copying embedded objects */
+  TRANSFER_EMBEDDINGS,
+
+  /** copying external relations (e.g. hyperlinks) */
+  TRANSFER_EXTERNAL_RELATIONS,
+
+  /** joining the bodies and correcting the relation and bookmark ids */
+  BUILD_BODY,
+
+  /** waiting for a free slot in the write queue (see {@link MergePipeline}) */
+  WRITE_OUTPUT
+}
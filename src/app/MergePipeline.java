@@ -0,0 +1,400 @@
+package app;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Runs sequential and batch merges as a pipeline of three stages, so reading
+ * the inputs overlaps with the merge work:<br>
+ * <ul>
+ * <li>the reader stage scans, unzips and parses the next input packages on
+ * its own threads, at most lookahead packages ahead of the merge stage</li>
+ * <li>the merge stage merges the inputs of a job on the calling thread</li>
+ * <li>the writer stage writes the merged documents on its own thread, with at
+ * most writeQueueDepth documents waiting</li>
+ * </ul>
+ * The busy time of every stage and the preflight cost estimates of the inputs
+ * are recorded in the {@link MergeReport} of a run. A pipeline can be used for
+ * many runs and must be closed to release its threads.<br>
+ *
+ */
+public class MergePipeline implements Closeable {
+  /** the default number of reader threads */
+  public final static int DEFAULT_READER_THREADS = 2;
+
+  /** the default number of inputs read ahead of the merge stage */
+  public final static int DEFAULT_LOOKAHEAD = 4;
+
+  /** the default number of merged documents waiting to be written */
+  public final static int DEFAULT_WRITE_QUEUE_DEPTH = 2;
+
+  /** interval in which the merge control is checked while waiting */
+  private final static long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final DocxMerger merger;
+  private final PreflightScanner scanner;
+  private final int readerThreads;
+  private final int lookahead;
+  private final int writeQueueDepth;
+  private final ExecutorService readers;
+  private final ExecutorService writer;
+
+  /**
+   * Creates a pipeline with the default settings and the default preflight
+   * scanner.<br>
+   * <br>
+   *
+   * @param merger the merger used by the merge stage
+   */
+  public MergePipeline(DocxMerger merger) {
+    this(merger, new PreflightScanner(), DEFAULT_READER_THREADS, DEFAULT_LOOKAHEAD, DEFAULT_WRITE_QUEUE_DEPTH);
+  }
+
+  /**
+   * Creates a pipeline.<br>
+   * <br>
+   *
+   * @param merger          the merger used by the merge stage
+   * @param scanner         scanner every input is checked with before it is
+   *                        parsed, may be null
+   * @param readerThreads   number of threads of the reader stage
+   * @param lookahead       number of inputs read ahead of the merge stage
+   * @param writeQueueDepth number of merged documents waiting to be written
+   */
+  public MergePipeline(DocxMerger merger, PreflightScanner scanner, int readerThreads, int lookahead,
+      int writeQueueDepth) {
+    if (lookahead <= 0) {
+      throw new IllegalArgumentException("lookahead must be positive: " + lookahead);
+    }
+    if (writeQueueDepth <= 0) {
+      throw new IllegalArgumentException("writeQueueDepth must be positive: " + writeQueueDepth);
+    }
+    this.merger = merger;
+    this.scanner = scanner;
+    this.readerThreads = Math.max(1, readerThreads);
+    this.lookahead = lookahead;
+    this.writeQueueDepth = writeQueueDepth;
+    this.readers = Executors.newFixedThreadPool(this.readerThreads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "merge-pipeline-reader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "merge-pipeline-writer");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * Merges the given inputs in order (the second is appended to the first, the
+   * third to the result and so on) and writes the result to the given file.<br>
+   * <br>
+   *
+   * @param inputs  the docx files to merge
+   * @param output  the file to write the result to
+   * @param report  receives statistics about the merges and the stages, may be
+   *                null
+   * @param control deadline and cancellation token of the whole run
+   * @throws IOException    if an input can't be read or is rejected by the
+   *                        preflight scan, or the output can't be written
+   * @throws MergeException if a merge fails or is stopped
+   */
+  public void merge(List<File> inputs, File output, MergeReport report, MergeControl control)
+      throws IOException, MergeException {
+    run(Collections.singletonList(inputs), Collections.singletonList(output), report, control);
+  }
+
+  /**
+   * Runs a batch of merge jobs. The inputs of every job are merged in order
+   * and written to a file of the output directory; the reader stage reads
+   * ahead across job boundaries.<br>
+   * <br>
+   *
+   * @param jobs            the inputs of every job
+   * @param outputDir       directory to write the results to
+   * @param fileNamePattern pattern for the file names, formatted with the index
+   *                        of the job (e.g. "merged-%05d.docx")
+   * @param report          receives statistics about the merges and the
+   *                        stages, may be null
+   * @param control         deadline and cancellation token of the whole run
+   * @return the written files
+   * @throws IOException    if an input can't be read or is rejected by the
+   *                        preflight scan, or an output can't be written
+   * @throws MergeException if a merge fails or is stopped
+   */
+  public List<File> mergeAll(List<? extends List<File>> jobs, File outputDir, String fileNamePattern,
+      MergeReport report, MergeControl control) throws IOException, MergeException {
+    List<File> outputs = new ArrayList<File>();
+    for (int i = 0; i < jobs.size(); i++) {
+      outputs.add(new File(outputDir, String.format(fileNamePattern, i)));
+    }
+    run(jobs, outputs, report, control);
+    return outputs;
+  }
+
+  /**
+   * Runs the jobs through the stages.<br>
+   * <br>
+   */
+  private void run(List<? extends List<File>> jobs, List<File> outputs, MergeReport report, MergeControl control)
+      throws IOException, MergeException {
+    final MergeReport stats = report != null ? report : new MergeReport();
+    long start = System.nanoTime();
+
+    List<File> inputs = new ArrayList<File>();
+    for (List<File> job : jobs) {
+      if (job.isEmpty()) {
+        throw new IllegalArgumentException("merge job without inputs");
+      }
+      inputs.addAll(job);
+    }
+    Iterator<File> toRead = inputs.iterator();
+
+    ArrayDeque<Future<Input>> reads = new ArrayDeque<Future<Input>>();
+    List<Future<Void>> writes = new ArrayList<Future<Void>>();
+    final Semaphore writeSlots = new Semaphore(writeQueueDepth);
+    XWPFDocument result = null;
+    XWPFDocument doc = null;
+    boolean done = false;
+    try {
+      for (int i = 0; i < jobs.size(); i++) {
+        for (int j = 0; j < jobs.get(i).size(); j++) {
+          checkWrites(writes, control);
+          while (reads.size() < lookahead && toRead.hasNext()) {
+            reads.add(readers.submit(read(toRead.next(), stats)));
+          }
+          Input input = await(reads.poll(), MergePhase.READ_INPUT, control);
+          doc = input.document;
+          if (input.preflight != null) {
+            stats.addInput(input.preflight);
+          }
+
+          if (result == null) {
+            result = doc;
+          } else {
+            long mergeStart = System.nanoTime();
+            XWPFDocument merged = merger.merge(result, doc, report, control);
+            merger.release(result);
+            merger.release(doc);
+            result = merged;
+            stats.addStageWork(PipelineStage.MERGE, System.nanoTime() - mergeStart);
+          }
+          doc = null;
+        }
+
+        while (!writeSlots.tryAcquire(Math.min(control.remainingNanos(), POLL_NANOS), TimeUnit.NANOSECONDS)) {
+          control.checkpoint(MergePhase.WRITE_OUTPUT);
+        }
+        writes.add(writer.submit(write(result, outputs.get(i), writeSlots, stats)));
+        result = null;
+      }
+
+      for (Future<Void> write : writes) {
+        await(write, MergePhase.WRITE_OUTPUT, control);
+      }
+      done = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for the writer", e);
+    } finally {
+      if (!done) {
+        merger.release(doc);
+        if (result != doc) {
+          merger.release(result);
+        }
+        for (Future<Input> read : reads) {
+          if (!read.cancel(true)) {
+            // already read, the input is released like a merged one
+            try {
+              merger.release(read.get().document);
+            } catch (ExecutionException e) {
+              // failed reads hold no document
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        }
+      }
+      long wall = System.nanoTime() - start;
+      stats.addStageCapacity(PipelineStage.READ, wall * readerThreads);
+      stats.addStageCapacity(PipelineStage.MERGE, wall);
+      stats.addStageCapacity(PipelineStage.WRITE, wall);
+    }
+  }
+
+  /**
+   * Creates the task of the reader stage for a single input.<br>
+   * <br>
+   */
+  private Callable<Input> read(final File file, final MergeReport stats) {
+    return new Callable<Input>() {
+      @Override
+      public Input call() throws IOException {
+        long start = System.nanoTime();
+        try {
+          PreflightResult preflight = null;
+          if (scanner != null) {
+            preflight = scanner.scan(file);
+            if (!preflight.isAccepted()) {
+              throw new IOException("rejected " + file + ": " + preflight.getProblems());
+            }
+          }
+          return new Input(open(file), preflight);
+        } finally {
+          stats.addStageWork(PipelineStage.READ, System.nanoTime() - start);
+        }
+      }
+    };
+  }
+
+  /**
+   * Loads an input from the central directory of its zip file, the same one
+   * the preflight scan checked. A stream would trust the local headers
+   * instead, which may differ from it.<br>
+   * <br>
+   */
+  private static XWPFDocument open(File file) throws IOException {
+    OPCPackage pkg;
+    try {
+      pkg = OPCPackage.open(file.getPath());
+    } catch (InvalidFormatException e) {
+      throw new IOException("could not open " + file, e);
+    }
+    boolean loaded = false;
+    try {
+      XWPFDocument doc = new XWPFDocument(pkg);
+      loaded = true;
+      return doc;
+    } finally {
+      if (!loaded) {
+        // the package is never closed, that would save it to the file
+        pkg.revert();
+      }
+    }
+  }
+
+  /**
+   * Collects the finished tasks of the writer stage, so a failed write stops
+   * the run before the remaining jobs are merged.<br>
+   * <br>
+   */
+  private static void checkWrites(List<Future<Void>> writes, MergeControl control)
+      throws IOException, MergeCancelledException {
+    for (Iterator<Future<Void>> iter = writes.iterator(); iter.hasNext();) {
+      Future<Void> write = iter.next();
+      if (write.isDone()) {
+        await(write, MergePhase.WRITE_OUTPUT, control);
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Creates the task of the writer stage for a single result.<br>
+   * <br>
+   */
+  private Callable<Void> write(final XWPFDocument doc, final File file, final Semaphore writeSlots,
+      final MergeReport stats) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        long start = System.nanoTime();
+        try {
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+          try {
+            doc.write(out);
+          } finally {
+            out.close();
+          }
+          return null;
+        } finally {
+          merger.release(doc);
+          writeSlots.release();
+          stats.addStageWork(PipelineStage.WRITE, System.nanoTime() - start);
+        }
+      }
+    };
+  }
+
+  /**
+   * Waits for the given task of the reader or writer stage, checking the
+   * control in between.<br>
+   * <br>
+   */
+  private static <T> T await(Future<T> future, MergePhase phase, MergeControl control)
+      throws IOException, MergeCancelledException {
+    try {
+      while (true) {
+        control.checkpoint(phase);
+        try {
+          return future.get(Math.min(control.remainingNanos(), POLL_NANOS), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          // check the control again
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for the " + phase, e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("pipeline stage failed", e.getCause());
+    }
+  }
+
+  /**
+   * An input package as provided by the reader stage.<br>
+   *
+   */
+  private static final class Input {
+    final XWPFDocument document;
+
+    /** the result of the preflight scan, null if there is no scanner */
+    final PreflightResult preflight;
+
+    Input(XWPFDocument document, PreflightResult preflight) {
+      this.document = document;
+      this.preflight = preflight;
+    }
+  }
+
+  /**
+   * Shuts down the threads of this pipeline. Pending writes are completed.<br>
+   * <br>
+   */
+  @Override
+  public void close() {
+    readers.shutdown();
+    writer.shutdown();
+  }
+}
@@ -0,0 +1,196 @@
+package app;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Collects statistics about a merge run. It is filled while the run is
+ * processed and can be inspected by the caller afterwards. A run is a single
+ * merge or a whole pipeline run, which adds the statistics of all its merges
+ * and stages to the same report; a new instance should be used for every
+ * run.<br>
+ *
+ */
+public class MergeReport {
+  /** number of pictures that were replaced by an optimized version */
+  private int imagesOptimized = 0;
+
+  /** number of pictures that were copied unchanged */
+  private int imagesUnchanged = 0;
+
+  /** bytes saved by the image optimization stage */
+  private long imageBytesSaved = 0;
+
+  /** number of inputs read by a pipeline with preflight scan */
+  private int inputs = 0;
+
+  /** sum of the estimated costs of these inputs (see PreflightResult) */
+  private long inputEstimatedCost = 0;
+
+  /** items, busy time and capacity in nanoseconds of the pipeline stages */
+  private final EnumMap<PipelineStage, long[]> stages = new EnumMap<PipelineStage, long[]>(PipelineStage.class);
+
+  /**
+   * Records the outcome of optimizing a single picture.<br>
+   * <br>
+   *
+   * @param originalSize  size of the picture data before optimization
+   * @param optimizedSize size of the picture data that was actually written
+   */
+  synchronized void addImage(long originalSize, long optimizedSize) {
+    if (optimizedSize < originalSize) {
+      imagesOptimized++;
+      imageBytesSaved += originalSize - optimizedSize;
+    } else {
+      imagesUnchanged++;
+    }
+  }
+
+  /**
+   * Returns the number of pictures that were replaced by an optimized
+   * version.<br>
+   * <br>
+   *
+   * @return the number of optimized pictures
+   */
+  public synchronized int getImagesOptimized() {
+    return imagesOptimized;
+  }
+
+  /**
+   * Returns the number of pictures that were copied unchanged.<br>
+   * <br>
+   *
+   * @return the number of unchanged pictures
+   */
+  public synchronized int getImagesUnchanged() {
+    return imagesUnchanged;
+  }
+
+  /**
+   * Returns the number of bytes saved by the image optimization stage.<br>
+   * <br>
+   *
+   * @return the saved bytes
+   */
+  public synchronized long getImageBytesSaved() {
+    return imageBytesSaved;
+  }
+
+  /**
+   * Records the preflight result of an input read by a pipeline.<br>
+   * <br>
+   *
+   * @param preflight the result of the preflight scan
+   */
+  synchronized void addInput(PreflightResult preflight) {
+    inputs++;
+    inputEstimatedCost += preflight.getEstimatedCost();
+  }
+
+  /**
+   * Returns the number of inputs whose preflight result was recorded.<br>
+   * <br>
+   *
+   * @return the number of inputs
+   */
+  public synchronized int getInputs() {
+    return inputs;
+  }
+
+  /**
+   * Returns the sum of the estimated costs of the recorded inputs (see
+   * {@link PreflightResult#getEstimatedCost()}).<br>
+   * <br>
+   *
+   * @return the estimated cost
+   */
+  public synchronized long getInputEstimatedCost() {
+    return inputEstimatedCost;
+  }
+
+  /**
+   * Records a single item processed by a pipeline stage.<br>
+   * <br>
+   *
+   * @param stage     the stage
+   * @param busyNanos the time the stage spent on the item
+   */
+  synchronized void addStageWork(PipelineStage stage, long busyNanos) {
+    long[] values = stage(stage);
+    values[0]++;
+    values[1] += busyNanos;
+  }
+
+  /**
+   * Records the time a pipeline stage was available, i.e. the wall time of a
+   * pipeline run multiplied by the number of threads of the stage.<br>
+   * <br>
+   *
+   * @param stage         the stage
+   * @param capacityNanos the available time
+   */
+  synchronized void addStageCapacity(PipelineStage stage, long capacityNanos) {
+    stage(stage)[2] += capacityNanos;
+  }
+
+  private long[] stage(PipelineStage stage) {
+    long[] values = stages.get(stage);
+    if (values == null) {
+      values = new long[3];
+      stages.put(stage, values);
+    }
+    return values;
+  }
+
+  /**
+   * Returns the number of items processed by the given pipeline stage.<br>
+   * <br>
+   *
+   * @param stage the stage
+   * @return the number of items
+   */
+  public synchronized long getStageItems(PipelineStage stage) {
+    long[] values = stages.get(stage);
+    return values == null ? 0 : values[0];
+  }
+
+  /**
+   * Returns the time the given pipeline stage was busy.<br>
+   * <br>
+   *
+   * @param stage the stage
+   * @return the busy time in nanoseconds
+   */
+  public synchronized long getStageBusyNanos(PipelineStage stage) {
+    long[] values = stages.get(stage);
+    return values == null ? 0 : values[1];
+  }
+
+  /**
+   * Returns the share of its available time the given pipeline stage was
+   * busy.<br>
+   * <br>
+   *
+   * @param stage the stage
+   * @return the utilization (0.0 - 1.0), 0 if the stage didn't run
+   */
+  public synchronized double getStageUtilization(PipelineStage stage) {
+    long[] values = stages.get(stage);
+    return values == null || values[2] <= 0 ? 0 : Math.min(1.0, (double) values[1] / values[2]);
+  }
+
+  @Override
+  public synchronized String toString() {
+    String result = "MergeReport [imagesOptimized=" + imagesOptimized + ", imagesUnchanged=" + imagesUnchanged
+        + ", imageBytesSaved=" + imageBytesSaved;
+    if (inputs > 0) {
+      result += ", inputs=" + inputs + ", inputEstimatedCost=" + inputEstimatedCost;
+    }
+    for (Map.Entry<PipelineStage, long[]> entry : stages.entrySet()) {
+      result += ", " + entry.getKey() + "=[items=" + entry.getValue()[0] + ", utilization="
+          + Math.round(getStageUtilization(entry.getKey()) * 100) + "%]";
+    }
+    return result + "]";
+  }
+}
@@ -0,0 +1,17 @@
+package app;
+
+/**
+ * The stages of a {@link MergePipeline}. Used to report the utilization of
+ * every stage.<br>
+ *
+ */
+public enum PipelineStage {
+  /** preflight scan, unzipping and parsing of the input packages */
+  READ,
+
+  /** merging the parsed inputs */
+  MERGE,
+
+  /** writing the merged documents */
+  WRITE
+}
@@ -0,0 +1,214 @@
+package app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The verdict of a {@link PreflightScanner} for a single input file together
+ * with the metadata collected while scanning it.<br>
+ *
+ */
+public class PreflightResult {
+  /**
+   * weight of a byte of the main document part in the cost estimate, it is
+   * parsed into a DOM and serialized several times during a merge
+   */
+  private final static int XML_COST_FACTOR = 10;
+
+  private final File file;
+  private final List<String> problems = new ArrayList<String>();
+
+  private String mainPartName;
+  private long mainPartSize = 0;
+  private int entryCount = 0;
+  private long totalSize = 0;
+  private long totalCompressedSize = 0;
+  private int mediaCount = 0;
+  private long mediaSize = 0;
+  private int embeddingCount = 0;
+  private long embeddingSize = 0;
+  private int bookmarkCount = 0;
+  private int altChunkCount = 0;
+  private long sampledBytes = 0;
+  private boolean sampleComplete = false;
+
+  PreflightResult(File file) {
+    this.file = file;
+  }
+
+  void addProblem(String problem) {
+    problems.add(problem);
+  }
+
+  void setMainPart(String name, long size) {
+    this.mainPartName = name;
+    this.mainPartSize = size;
+  }
+
+  void addEntry(String name, long size, long compressedSize) {
+    entryCount++;
+    totalSize += Math.max(0, size);
+    totalCompressedSize += Math.max(0, compressedSize);
+    if (name.startsWith("word/media/")) {
+      mediaCount++;
+      mediaSize += Math.max(0, size);
+    } else if (name.startsWith("word/embeddings/")) {
+      embeddingCount++;
+      embeddingSize += Math.max(0, size);
+    }
+  }
+
+  void setSampleCounts(int bookmarkCount, int altChunkCount, long sampledBytes, boolean sampleComplete) {
+    this.bookmarkCount = bookmarkCount;
+    this.altChunkCount = altChunkCount;
+    this.sampledBytes = sampledBytes;
+    this.sampleComplete = sampleComplete;
+  }
+
+  /**
+   * Returns true, if no problem was found and the file may be loaded.<br>
+   * <br>
+   *
+   * @return true, if the file passed the preflight
+   */
+  public boolean isAccepted() {
+    return problems.isEmpty();
+  }
+
+  /**
+   * @return the scanned file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the problems found, empty if the file was accepted
+   */
+  public List<String> getProblems() {
+    return Collections.unmodifiableList(problems);
+  }
+
+  /**
+   * @return the name of the main document part or null if it wasn't found
+   */
+  public String getMainPartName() {
+    return mainPartName;
+  }
+
+  /**
+   * @return the uncompressed size of the main document part
+   */
+  public long getMainPartSize() {
+    return mainPartSize;
+  }
+
+  /**
+   * @return the number of entries in the package
+   */
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * @return the uncompressed size of all entries
+   */
+  public long getTotalSize() {
+    return totalSize;
+  }
+
+  /**
+   * @return the compressed size of all entries
+   */
+  public long getTotalCompressedSize() {
+    return totalCompressedSize;
+  }
+
+  /**
+   * @return the number of media parts (pictures, videos, ...)
+   */
+  public int getMediaCount() {
+    return mediaCount;
+  }
+
+  /**
+   * @return the uncompressed size of all media parts
+   */
+  public long getMediaSize() {
+    return mediaSize;
+  }
+
+  /**
+   * @return the number of embedded objects
+   */
+  public int getEmbeddingCount() {
+    return embeddingCount;
+  }
+
+  /**
+   * @return the uncompressed size of all embedded objects
+   */
+  public long getEmbeddingSize() {
+    return embeddingSize;
+  }
+
+  /**
+   * Returns the number of bookmarks. If only a sample of the main document part
+   * was scanned (see {@link #isSampleComplete()}), the number is extrapolated
+   * from the sample.<br>
+   * <br>
+   *
+   * @return the (estimated) number of bookmarks
+   */
+  public int getBookmarkCount() {
+    return extrapolate(bookmarkCount);
+  }
+
+  /**
+   * Returns the number of altChunks. If only a sample of the main document part
+   * was scanned (see {@link #isSampleComplete()}), the number is extrapolated
+   * from the sample.<br>
+   * <br>
+   *
+   * @return the (estimated) number of altChunks
+   */
+  public int getAltChunkCount() {
+    return extrapolate(altChunkCount);
+  }
+
+  /**
+   * @return true, if the whole main document part was scanned
+   */
+  public boolean isSampleComplete() {
+    return sampleComplete;
+  }
+
+  /**
+   * Returns a rough estimate of the cost of loading and merging the file, which
+   * can be used to place it in a batch. It is measured in bytes that have to be
+   * processed, where the bytes of the main document part are weighted higher as
+   * they are parsed and serialized several times.<br>
+   * <br>
+   *
+   * @return the estimated cost
+   */
+  public long getEstimatedCost() {
+    return mainPartSize * XML_COST_FACTOR + totalSize - mainPartSize;
+  }
+
+  private int extrapolate(int sampled) {
+    if (sampleComplete || sampledBytes <= 0 || mainPartSize <= sampledBytes) {
+      return sampled;
+    }
+    return (int) Math.min(Integer.MAX_VALUE, (long) sampled * mainPartSize / sampledBytes);
+  }
+
+  @Override
+  public String toString() {
+    return "PreflightResult [file=" + file + ", accepted=" + isAccepted() + ", problems=" + problems
+        + ", entries=" + entryCount + ", totalSize=" + totalSize + ", media=" + mediaCount + ", bookmarks="
+        + getBookmarkCount() + ", altChunks=" + getAltChunkCount() + ", estimatedCost=" + getEstimatedCost() + "]";
+  }
+}
@@ -0,0 +1,450 @@
+package app;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Inspects a docx file before it is loaded as XWPFDocument. Only the central
+ * directory of the zip file is read, the relations of the main document part
+ * and a bounded sample of the main document part itself are streamed. Files
+ * that exceed the configured limits or lack required parts are rejected, so
+ * the expensive load is never started for them.<br>
+ * An instance holds no state of a single scan and can be shared between
+ * threads. The scanned file should be loaded from the file itself (e.g. with
+ * {@code OPCPackage.open(String)}), which reads the same central directory,
+ * not from a stream of its local headers.<br>
+ *
+ */
+public class PreflightScanner {
+  /** the default limit for the uncompressed size of a single entry */
+  public final static long DEFAULT_MAX_ENTRY_SIZE = 256L * 1024 * 1024;
+
+  /** the default limit for the uncompressed size of all entries */
+  public final static long DEFAULT_MAX_TOTAL_SIZE = 1024L * 1024 * 1024;
+
+  /** the default limit for the compression ratio of a single entry */
+  public final static int DEFAULT_MAX_COMPRESSION_RATIO = 100;
+
+  /** the default limit for the number of entries */
+  public final static int DEFAULT_MAX_ENTRIES = 10000;
+
+  /** the default number of bytes of the main document part that are sampled */
+  public final static int DEFAULT_SAMPLE_SIZE = 1024 * 1024;
+
+  /** entries smaller than this are not checked for their compression ratio */
+  private final static long MIN_SIZE_FOR_RATIO_CHECK = 1024 * 1024;
+
+  private final static String CONTENT_TYPES_PART = "[Content_Types].xml";
+  private final static String PACKAGE_RELS_PART = "_rels/.rels";
+  private final static String REL_TYPE_OFFICE_DOCUMENT = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument";
+  private final static String NS_CONTENT_TYPES = "http://schemas.openxmlformats.org/package/2006/content-types";
+  private final static String NS_RELATIONSHIPS = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+  /** content types accepted for the main document part */
+  private final static HashSet<String> MAIN_CONTENT_TYPES = new HashSet<String>(Arrays.asList(
+      "application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml",
+      "application/vnd.openxmlformats-officedocument.wordprocessingml.template.main+xml",
+      "application/vnd.ms-word.document.macroEnabled.main+xml",
+      "application/vnd.ms-word.template.macroEnabledTemplate.main+xml"));
+
+  private final long maxEntrySize;
+  private final long maxTotalSize;
+  private final int maxCompressionRatio;
+  private final int maxEntries;
+  private final int sampleSize;
+
+  /**
+   * Creates a scanner with the default limits.<br>
+   * <br>
+   */
+  public PreflightScanner() {
+    this(DEFAULT_MAX_ENTRY_SIZE, DEFAULT_MAX_TOTAL_SIZE, DEFAULT_MAX_COMPRESSION_RATIO, DEFAULT_MAX_ENTRIES,
+        DEFAULT_SAMPLE_SIZE);
+  }
+
+  /**
+   * Creates a scanner.<br>
+   * <br>
+   *
+   * @param maxEntrySize        limit for the uncompressed size of a single entry
+   * @param maxTotalSize        limit for the uncompressed size of all entries
+   * @param maxCompressionRatio limit for the compression ratio of a single entry
+   * @param maxEntries          limit for the number of entries
+   * @param sampleSize          number of bytes of the main document part that
+   *                            are scanned for bookmarks and altChunks
+   */
+  public PreflightScanner(long maxEntrySize, long maxTotalSize, int maxCompressionRatio, int maxEntries,
+      int sampleSize) {
+    this.maxEntrySize = maxEntrySize;
+    this.maxTotalSize = maxTotalSize;
+    this.maxCompressionRatio = maxCompressionRatio;
+    this.maxEntries = maxEntries;
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * Scans the given file. Problems with the file are reported in the result,
+   * this method only fails if the file can't be read at all.<br>
+   * <br>
+   *
+   * @param file the docx file to scan
+   * @return the verdict and the collected metadata
+   * @throws IOException if the file can't be read
+   */
+  public PreflightResult scan(File file) throws IOException {
+    PreflightResult result = new PreflightResult(file);
+
+    ZipFile zip;
+    try {
+      zip = new ZipFile(file);
+    } catch (ZipException e) {
+      result.addProblem("not a valid zip file: " + e.getMessage());
+      return result;
+    }
+
+    try {
+      if (!checkEntries(zip, result)) {
+        return result;
+      }
+
+      // XMLInputFactory isn't specified to be thread-safe, so every scan
+      // creates its own
+      XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+      xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+      xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+      xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+
+      String mainPart = findMainPart(xmlInputFactory, zip, result);
+      if (mainPart == null) {
+        return result;
+      }
+      result.setMainPart(mainPart, zip.getEntry(mainPart).getSize());
+
+      checkContentType(xmlInputFactory, zip, mainPart, result);
+      checkRelations(xmlInputFactory, zip, mainPart, result);
+      sampleMainPart(xmlInputFactory, zip, mainPart, result);
+    } catch (XMLStreamException e) {
+      result.addProblem("malformed xml: " + e.getMessage());
+    } finally {
+      zip.close();
+    }
+
+    return result;
+  }
+
+  /**
+   * Checks the size and ratio limits for all entries of the central
+   * directory.<br>
+   * <br>
+   *
+   * @return false, if further scanning must not be done
+   */
+  private boolean checkEntries(ZipFile zip, PreflightResult result) {
+    if (zip.size() > maxEntries) {
+      result.addProblem("too many entries: " + zip.size());
+      return false;
+    }
+
+    Enumeration<? extends ZipEntry> entries = zip.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      long size = entry.getSize();
+      long compressedSize = entry.getCompressedSize();
+      result.addEntry(entry.getName(), size, compressedSize);
+
+      if (size < 0) {
+        result.addProblem("unknown size of entry " + entry.getName());
+      } else if (size > maxEntrySize) {
+        result.addProblem("entry too large: " + entry.getName() + " (" + size + " bytes)");
+      } else if (size >= MIN_SIZE_FOR_RATIO_CHECK && compressedSize > 0
+          && size / compressedSize > maxCompressionRatio) {
+        result.addProblem("suspicious compression ratio of entry " + entry.getName() + " ("
+            + (size / compressedSize) + ")");
+      }
+    }
+
+    if (result.getTotalSize() > maxTotalSize) {
+      result.addProblem("package too large: " + result.getTotalSize() + " bytes");
+    }
+
+    return result.isAccepted();
+  }
+
+  /**
+   * Finds the name of the main document part using the package relations.<br>
+   * <br>
+   *
+   * @return the name of the main part or null if it can't be found
+   */
+  private String findMainPart(XMLInputFactory xmlInputFactory, ZipFile zip, PreflightResult result)
+      throws IOException, XMLStreamException {
+    if (zip.getEntry(CONTENT_TYPES_PART) == null) {
+      result.addProblem("missing part " + CONTENT_TYPES_PART);
+    }
+    if (zip.getEntry(PACKAGE_RELS_PART) == null) {
+      result.addProblem("missing part " + PACKAGE_RELS_PART);
+      return null;
+    }
+
+    String mainPart = null;
+    for (String[] rel : readRelations(xmlInputFactory, zip, PACKAGE_RELS_PART)) {
+      if (REL_TYPE_OFFICE_DOCUMENT.equals(rel[1])) {
+        mainPart = resolveTarget("", rel[2]);
+        break;
+      }
+    }
+
+    if (mainPart == null) {
+      result.addProblem("no main document relation in " + PACKAGE_RELS_PART);
+    } else if (zip.getEntry(mainPart) == null) {
+      result.addProblem("missing main document part " + mainPart);
+      mainPart = null;
+    }
+
+    return mainPart;
+  }
+
+  /**
+   * Checks that the content type of the main document part is one of a word
+   * document.<br>
+   * <br>
+   */
+  private void checkContentType(XMLInputFactory xmlInputFactory, ZipFile zip, String mainPart,
+      PreflightResult result) throws IOException, XMLStreamException {
+    ZipEntry entry = zip.getEntry(CONTENT_TYPES_PART);
+    if (entry == null) {
+      return;
+    }
+
+    String contentType = null;
+    InputStream in = zip.getInputStream(entry);
+    try {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext() && contentType == null) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && NS_CONTENT_TYPES.equals(reader.getNamespaceURI())
+              && "Override".equals(reader.getLocalName())
+              && ("/" + mainPart).equals(reader.getAttributeValue(null, "PartName"))) {
+            contentType = reader.getAttributeValue(null, "ContentType");
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } finally {
+      in.close();
+    }
+
+    if (contentType == null) {
+      result.addProblem("no content type for main document part " + mainPart);
+    } else if (!MAIN_CONTENT_TYPES.contains(contentType)) {
+      result.addProblem("unsupported content type of main document part: " + contentType);
+    }
+  }
+
+  /**
+   * Checks that all internal targets of the relations of the main document part
+   * exist.<br>
+   * <br>
+   */
+  private void checkRelations(XMLInputFactory xmlInputFactory, ZipFile zip, String mainPart, PreflightResult result)
+      throws IOException, XMLStreamException {
+    int slash = mainPart.lastIndexOf('/');
+    String dir = mainPart.substring(0, slash + 1);
+    String relsPart = dir + "_rels/" + mainPart.substring(slash + 1) + ".rels";
+    if (zip.getEntry(relsPart) == null) {
+      result.addProblem("missing part " + relsPart);
+      return;
+    }
+
+    for (String[] rel : readRelations(xmlInputFactory, zip, relsPart)) {
+      if (rel[3] == null || !"External".equals(rel[3])) {
+        String target = resolveTarget(dir, rel[2]);
+        if (zip.getEntry(target) == null) {
+          result.addProblem("relation " + rel[0] + " points to missing part " + target);
+        }
+      }
+    }
+  }
+
+  /**
+   * Streams the first bytes of the main document part and counts bookmarks and
+   * altChunks.<br>
+   * <br>
+   */
+  private void sampleMainPart(XMLInputFactory xmlInputFactory, ZipFile zip, String mainPart, PreflightResult result)
+      throws IOException, XMLStreamException {
+    BoundedInputStream in = new BoundedInputStream(zip.getInputStream(zip.getEntry(mainPart)), sampleSize);
+    int bookmarks = 0;
+    int altChunks = 0;
+    boolean complete = false;
+    try {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT
+              && DOMHelpers.NS_W_URI.equals(reader.getNamespaceURI())) {
+            if (DOMHelpers.NODE_BM_START.equals(reader.getLocalName())) {
+              bookmarks++;
+            } else if ("altChunk".equals(reader.getLocalName())) {
+              altChunks++;
+            }
+          }
+        }
+        complete = true;
+      } catch (XMLStreamException e) {
+        // a truncated sample is expected, everything else is an error
+        if (!in.isExhausted()) {
+          throw e;
+        }
+      } finally {
+        reader.close();
+      }
+    } finally {
+      in.close();
+    }
+
+    result.setSampleCounts(bookmarks, altChunks, in.getCount(), complete);
+  }
+
+  /**
+   * Reads the given relations part.<br>
+   * <br>
+   *
+   * @return a list of relations, each as array of id, type, target and target
+   *         mode
+   */
+  private List<String[]> readRelations(XMLInputFactory xmlInputFactory, ZipFile zip, String name)
+      throws IOException, XMLStreamException {
+    List<String[]> result = new ArrayList<String[]>();
+    InputStream in = zip.getInputStream(zip.getEntry(name));
+    try {
+      XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT && NS_RELATIONSHIPS.equals(reader.getNamespaceURI())
+              && "Relationship".equals(reader.getLocalName())) {
+            result.add(new String[] { reader.getAttributeValue(null, "Id"), reader.getAttributeValue(null, "Type"),
+                reader.getAttributeValue(null, "Target"), reader.getAttributeValue(null, "TargetMode") });
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } finally {
+      in.close();
+    }
+    return result;
+  }
+
+  /**
+   * Resolves the target of a relation to the name of a zip entry.<br>
+   * <br>
+   *
+   * @param dir    the directory of the source part, ending with '/' or empty
+   * @param target the target as given in the relation
+   * @return the name of the targeted zip entry
+   */
+  static String resolveTarget(String dir, String target) {
+    if (target == null) {
+      return "";
+    }
+    String path = target.startsWith("/") ? target.substring(1) : dir + target;
+
+    ArrayList<String> segments = new ArrayList<String>();
+    for (String segment : path.split("/")) {
+      if (segment.equals("..")) {
+        if (!segments.isEmpty()) {
+          segments.remove(segments.size() - 1);
+        }
+      } else if (!segment.isEmpty() && !segment.equals(".")) {
+        segments.add(segment);
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    for (String segment : segments) {
+      if (sb.length() > 0) {
+        sb.append('/');
+      }
+      sb.append(segment);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Input stream that ends after a given number of bytes.<br>
+   *
+   */
+  private static class BoundedInputStream extends FilterInputStream {
+    private final long limit;
+    private long count = 0;
+    private boolean exhausted = false;
+
+    BoundedInputStream(InputStream in, long limit) {
+      super(in);
+      this.limit = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (count >= limit) {
+        exhausted = true;
+        return -1;
+      }
+      int b = super.read();
+      if (b > -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (count >= limit) {
+        exhausted = true;
+        return -1;
+      }
+      int read = super.read(b, off, (int) Math.min(len, limit - count));
+      if (read > 0) {
+        count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, limit - count));
+      count += skipped;
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    boolean isExhausted() {
+      return exhausted;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+}
@@ -0,0 +1,522 @@
+package app;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fills a template with the values of many records. The template is compiled
+ * once into static byte segments of its main document part and slots at its
+ * bookmarks; all other parts are compressed once and copied as raw bytes into
+ * every output. Filling a record only writes the segments and the escaped
+ * values, no DOM and no XWPFDocument is created.<br>
+ * The values of a record are mapped to bookmark names:
+ * <ul>
+ * <li>a String replaces the text of the bookmark (see
+ * {@link DOMHelpers#createRangeWithText(String, org.w3c.dom.Node)})</li>
+ * <li>a List is written as lines separated by breaks (see
+ * {@link DOMHelpers#createRangeWithText(List, org.w3c.dom.Node)})</li>
+ * <li>a File is inserted as sub-document using an altChunk, splitting the
+ * paragraph like
+ * {@link DOMHelpers#splitParagraphForAltChunk(String, org.w3c.dom.Node)}. The
+ * bookmark must be directly inside a paragraph or on block level, not e.g.
+ * inside a hyperlink.</li>
+ * </ul>
+ * Bookmarks without a value in a record keep their content. A bookmark whose
+ * content spans paragraphs, fields or other bookmarks keeps its content as
+ * well, the value is inserted right after its start.<br>
+ * An instance can be shared between threads. It must be closed to release its
+ * pool.<br>
+ *
+ */
+public class TemplateFiller implements Closeable {
+  private final static String REL_TYPE_ALTCHUNK = "http://schemas.openxmlformats.org/officeDocument/2006/relationships/aFChunk";
+  private final static String CONTENT_TYPES_PART = DocxPackage.CONTENT_TYPES_PART;
+
+  /** markup that must not be dropped when the content of a bookmark is replaced */
+  private final static String[] STRUCTURAL_TAGS = { "<w:p>", "<w:p ", "</w:p>", "<w:tbl", "<w:tr", "<w:tc",
+      "<w:bookmarkStart", "<w:bookmarkEnd", "<w:fldChar", "<w:fldSimple", "<w:sdt" };
+
+  private final List<ZipSegmentWriter.Part> staticParts = new ArrayList<ZipSegmentWriter.Part>();
+  private final String mainPartName;
+  private final String mainRelsPartName;
+  private final String mainPartDir;
+  private final byte[][] segments;
+  private final Slot[] slots;
+  private final Set<String> bookmarkNames;
+  private final int segmentsLength;
+
+  private final ZipSegmentWriter.Part contentTypesPart;
+  private final byte[] contentTypesHead;
+  private final byte[] contentTypesTail;
+  private final ZipSegmentWriter.Part mainRelsPart;
+  private final byte[] mainRelsHead;
+  private final byte[] mainRelsTail;
+
+  private final int threads;
+  private final ExecutorService pool;
+
+  /**
+   * Compiles the given template.<br>
+   * <br>
+   *
+   * @param template the docx file to use as template
+   * @param threads  number of threads used by {@link #fillAll}
+   * @throws IOException if the template can't be read or has no main document
+   *                     part
+   */
+  public TemplateFiller(File template, int threads) throws IOException {
+    DocxPackage pkg = DocxPackage.read(template);
+    mainPartName = pkg.mainPartName;
+    mainPartDir = pkg.mainPartDir;
+    mainRelsPartName = pkg.mainRelsPartName;
+
+    byte[] contentTypes = pkg.entries.get(CONTENT_TYPES_PART);
+    byte[] mainRels = pkg.entries.get(mainRelsPartName);
+
+    for (Map.Entry<String, byte[]> entry : pkg.entries.entrySet()) {
+      String name = entry.getKey();
+      if (!name.equals(mainPartName) && !name.equals(mainRelsPartName) && !name.equals(CONTENT_TYPES_PART)) {
+        staticParts.add(ZipSegmentWriter.Part.compress(name, entry.getValue()));
+      }
+    }
+
+    contentTypesPart = ZipSegmentWriter.Part.compress(CONTENT_TYPES_PART, contentTypes);
+    String strContentTypes = new String(contentTypes, ZipSegmentWriter.UTF8);
+    int ind = strContentTypes.lastIndexOf("</Types>");
+    contentTypesHead = strContentTypes.substring(0, ind).getBytes(ZipSegmentWriter.UTF8);
+    contentTypesTail = strContentTypes.substring(ind).getBytes(ZipSegmentWriter.UTF8);
+
+    mainRelsPart = ZipSegmentWriter.Part.compress(mainRelsPartName, mainRels);
+    String strMainRels = new String(mainRels, ZipSegmentWriter.UTF8);
+    ind = strMainRels.lastIndexOf("</Relationships>");
+    mainRelsHead = strMainRels.substring(0, ind).getBytes(ZipSegmentWriter.UTF8);
+    mainRelsTail = strMainRels.substring(ind).getBytes(ZipSegmentWriter.UTF8);
+
+    String xml = pkg.getString(mainPartName);
+    List<Slot> slotList = compileSlots(xml);
+    slots = slotList.toArray(new Slot[slotList.size()]);
+    segments = new byte[slots.length + 1][];
+    int pos = 0;
+    LinkedHashSet<String> names = new LinkedHashSet<String>();
+    for (int i = 0; i < slots.length; i++) {
+      segments[i] = xml.substring(pos, slots[i].start).getBytes(ZipSegmentWriter.UTF8);
+      pos = slots[i].end;
+      if (slots[i].name != null) {
+        names.add(slots[i].name);
+      }
+    }
+    segments[slots.length] = xml.substring(pos).getBytes(ZipSegmentWriter.UTF8);
+    int len = 0;
+    for (byte[] segment : segments) {
+      len += segment.length;
+    }
+    segmentsLength = len;
+    bookmarkNames = Collections.unmodifiableSet(names);
+
+    this.threads = Math.max(1, threads);
+    this.pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "template-filler");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  /**
+   * @return the names of the bookmarks that can be filled
+   */
+  public Set<String> getBookmarkNames() {
+    return bookmarkNames;
+  }
+
+  /**
+   * Fills the template with the given record and writes the result to the given
+   * stream. The stream is not closed.<br>
+   * <br>
+   *
+   * @param record map of bookmark names to values
+   * @param out    stream to write the docx file to
+   * @throws IOException if writing fails, a sub-document can't be read or is
+   *                     given for a bookmark where it can't be inserted
+   */
+  public void fill(Map<String, ?> record, OutputStream out) throws IOException {
+    ByteArrayOutputStream doc = new ByteArrayOutputStream(segmentsLength + segmentsLength / 4);
+    List<File> subDocs = new ArrayList<File>();
+
+    // the section break of a paragraph split by sub-documents moves to its
+    // last part
+    Map<Slot, Slot> lastSplits = new HashMap<Slot, Slot>();
+    for (Slot slot : slots) {
+      if (slot.section != null && record.get(slot.name) instanceof File) {
+        lastSplits.put(slot.section, slot);
+      }
+    }
+
+    for (int i = 0; i < slots.length; i++) {
+      doc.write(segments[i]);
+      Slot slot = slots[i];
+      if (slot.name == null) {
+        if (!lastSplits.containsKey(slot)) {
+          doc.write(slot.defaultContent);
+        }
+        continue;
+      }
+      Object value = record.get(slot.name);
+      if (value == null) {
+        doc.write(slot.defaultContent);
+      } else if (value instanceof File) {
+        subDocs.add((File) value);
+        slot.writeAltChunk(doc, "tfChunk" + subDocs.size(), lastSplits.get(slot.section) == slot);
+      } else if (value instanceof List) {
+        List<String> lines = new ArrayList<String>();
+        for (Object line : (List<?>) value) {
+          lines.add(String.valueOf(line));
+        }
+        slot.writeText(doc, lines);
+      } else {
+        slot.writeText(doc, Collections.singletonList(value.toString()));
+      }
+    }
+    doc.write(segments[slots.length]);
+
+    ZipSegmentWriter writer = new ZipSegmentWriter(out);
+    try {
+      if (subDocs.isEmpty()) {
+        writer.write(contentTypesPart);
+        writer.write(mainRelsPart);
+      } else {
+        ByteArrayOutputStream contentTypes = new ByteArrayOutputStream();
+        ByteArrayOutputStream mainRels = new ByteArrayOutputStream();
+        contentTypes.write(contentTypesHead);
+        mainRels.write(mainRelsHead);
+        for (int i = 1; i <= subDocs.size(); i++) {
+          contentTypes.write(("<Override PartName=\"/" + mainPartDir + "tfchunk" + i
+              + ".docx\" ContentType=\"" + DocxMerger.CT_MAIN_DOCUMENT + "\"/>").getBytes(ZipSegmentWriter.UTF8));
+          mainRels.write(("<Relationship Id=\"tfChunk" + i + "\" Type=\"" + REL_TYPE_ALTCHUNK + "\" Target=\"tfchunk"
+              + i + ".docx\"/>").getBytes(ZipSegmentWriter.UTF8));
+        }
+        contentTypes.write(contentTypesTail);
+        mainRels.write(mainRelsTail);
+        writer.write(CONTENT_TYPES_PART, contentTypes.toByteArray());
+        writer.write(mainRelsPartName, mainRels.toByteArray());
+        for (int i = 1; i <= subDocs.size(); i++) {
+          writer.write(mainPartDir + "tfchunk" + i + ".docx", Files.readAllBytes(subDocs.get(i - 1).toPath()));
+        }
+      }
+
+      writer.write(mainPartName, doc.toByteArray());
+      for (ZipSegmentWriter.Part part : staticParts) {
+        writer.write(part);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Fills the template with all given records in parallel. The output of the
+   * n-th record (starting at 0) is written to the file named by formatting the
+   * given pattern with n. Only a bounded number of records is read ahead, so
+   * the records may be streamed.<br>
+   * <br>
+   *
+   * @param records         the records
+   * @param outputDir       directory the files are written to
+   * @param fileNamePattern pattern for the file names, e.g. "letter-%06d.docx"
+   * @return the number of written files
+   * @throws IOException if a record can't be filled, no further records are
+   *                     started then
+   */
+  public int fillAll(Iterator<? extends Map<String, ?>> records, final File outputDir, final String fileNamePattern)
+      throws IOException {
+    int maxInFlight = threads * 2;
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    int count = 0;
+    try {
+      while (failure.get() == null && records.hasNext()) {
+        final Map<String, ?> record = records.next();
+        final int index = count++;
+        inFlight.acquire();
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              if (failure.get() == null) {
+                File file = new File(outputDir, String.format(fileNamePattern, index));
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+                try {
+                  fill(record, out);
+                } finally {
+                  out.close();
+                }
+              }
+            } catch (Exception e) {
+              failure.compareAndSet(null, e);
+            } finally {
+              inFlight.release();
+            }
+          }
+        });
+      }
+      inFlight.acquire(maxInFlight);
+      inFlight.release(maxInFlight);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while filling templates", e);
+    }
+
+    if (failure.get() != null) {
+      throw new IOException("could not fill template", failure.get());
+    }
+    return count;
+  }
+
+  /**
+   * Shuts down the pool of this filler.<br>
+   * <br>
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Finds all bookmarks of the given main document part and creates the slots
+   * for them, ordered by their position.<br>
+   * <br>
+   */
+  private static List<Slot> compileSlots(String xml) {
+    List<Slot> result = new ArrayList<Slot>();
+    Map<Integer, Slot> sections = new HashMap<Integer, Slot>();
+    BodyXml.ElementPath path = new BodyXml.ElementPath(xml, 0);
+
+    int ind1 = xml.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      path.advanceTo(ind1);
+      int tagEnd = xml.indexOf(">", ind1) + 1;
+      String tag = xml.substring(ind1, tagEnd);
+      String name = DocxPackage.getAttribute(tag, "w:name");
+      String id = DocxPackage.getAttribute(tag, "w:id");
+
+      if (name != null && id != null && !name.equalsIgnoreCase("_GoBack")) {
+        int endTag = findBookmarkEnd(xml, id, tagEnd);
+        String content = endTag > -1 ? xml.substring(tagEnd, endTag) : "";
+        boolean replaceable = endTag > -1;
+        for (String structural : STRUCTURAL_TAGS) {
+          if (content.contains(structural)) {
+            replaceable = false;
+            break;
+          }
+        }
+
+        Slot slot = new Slot();
+        slot.name = name;
+        slot.start = tagEnd;
+        slot.end = replaceable ? endTag : tagEnd;
+        slot.defaultContent = (replaceable ? content : "").getBytes(ZipSegmentWriter.UTF8);
+
+        slot.inParagraph = "w:p".equals(path.parent());
+        if (slot.inParagraph) {
+          slot.rPr = findRPr(xml, content, BodyXml.tagEnd(xml, path.parentStart()), ind1);
+        }
+        // paragraphs and altChunks need block level; a paragraph is split,
+        // but not inside e.g. a hyperlink or content control
+        slot.acceptsBlockContent = path.acceptsBlockContent();
+        if (slot.acceptsBlockContent && slot.inParagraph) {
+          int pOpen = path.parentStart();
+          String reopen = BodyXml.paragraphReopen(xml, pOpen);
+          int[] sectPr = BodyXml.paragraphSectPr(xml, pOpen);
+          if (sectPr != null) {
+            // a section break is a slot without name, so it can be left out
+            // when the paragraph is split
+            Slot section = sections.get(pOpen);
+            if (section == null) {
+              section = new Slot();
+              section.start = sectPr[0];
+              section.end = sectPr[1];
+              section.defaultContent = xml.substring(sectPr[0], sectPr[1]).getBytes(ZipSegmentWriter.UTF8);
+              sections.put(pOpen, section);
+              result.add(section);
+            }
+            slot.section = section;
+            slot.sectionReopen = reopen.getBytes(ZipSegmentWriter.UTF8);
+            reopen = reopen.substring(0, sectPr[0] - pOpen) + reopen.substring(sectPr[1] - pOpen);
+          }
+          slot.paragraphReopen = reopen.getBytes(ZipSegmentWriter.UTF8);
+        }
+
+        result.add(slot);
+      }
+
+      ind1 = xml.indexOf("<w:bookmarkStart", tagEnd);
+    }
+
+    // slots share no positions, as replaceable content contains no bookmarks
+    // and no paragraph properties
+    Collections.sort(result, new Comparator<Slot>() {
+      @Override
+      public int compare(Slot s1, Slot s2) {
+        return Integer.compare(s1.start, s2.start);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Returns the position of the bookmarkEnd tag with the given id.<br>
+   * <br>
+   *
+   * @return the position or -1 if there is none
+   */
+  private static int findBookmarkEnd(String xml, String id, int from) {
+    int ind1 = xml.indexOf("<w:bookmarkEnd", from);
+    while (ind1 > -1) {
+      int tagEnd = xml.indexOf(">", ind1);
+      if (tagEnd < 0) {
+        return -1;
+      }
+      if (id.equals(DocxPackage.getAttribute(xml.substring(ind1, tagEnd + 1), "w:id"))) {
+        return ind1;
+      }
+      ind1 = xml.indexOf("<w:bookmarkEnd", tagEnd);
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the run properties to format the value of a slot with. The
+   * properties of the first run of the bookmark content are preferred, else the
+   * nearest properties before the bookmark are used (see
+   * {@link DOMHelpers#clonePreviousRPr(org.w3c.dom.Node)}).<br>
+   * <br>
+   */
+  private static String findRPr(String xml, String content, int paragraphStart, int bookmarkStart) {
+    int ind1 = content.indexOf("<w:rPr>");
+    if (ind1 < 0) {
+      ind1 = xml.lastIndexOf("<w:rPr>", bookmarkStart);
+      if (ind1 < paragraphStart) {
+        return "";
+      }
+      content = xml;
+    }
+    int ind2 = content.indexOf("</w:rPr>", ind1);
+    return ind2 < 0 ? "" : content.substring(ind1, ind2 + 8);
+  }
+
+  /**
+   * Escapes the given text for the use as xml content. Characters that are not
+   * allowed in xml are dropped.<br>
+   * <br>
+   */
+  static String escape(String text) {
+    StringBuilder sb = null;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      String replacement = null;
+      if (c == '<') {
+        replacement = "&lt;";
+      } else if (c == '>') {
+        replacement = "&gt;";
+      } else if (c == '&') {
+        replacement = "&amp;";
+      } else if (c == '"') {
+        replacement = "&quot;";
+      } else if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+        replacement = "";
+      }
+
+      if (replacement != null && sb == null) {
+        sb = new StringBuilder(text.length() + 16);
+        sb.append(text, 0, i);
+      }
+      if (sb != null) {
+        if (replacement != null) {
+          sb.append(replacement);
+        } else {
+          sb.append(c);
+        }
+      }
+    }
+    return sb == null ? text : sb.toString();
+  }
+
+  /**
+   * A position in the main document part where a value is written. A slot
+   * without name holds the section break of a paragraph that may be split.<br>
+   *
+   */
+  private static class Slot {
+    String name;
+    int start;
+    int end;
+    byte[] defaultContent;
+    boolean inParagraph = false;
+    boolean acceptsBlockContent = false;
+    byte[] paragraphReopen;
+    /** the section break of the paragraph, null if it has none */
+    Slot section;
+    /** continues the paragraph including its section break */
+    byte[] sectionReopen;
+    String rPr = "";
+
+    void writeText(ByteArrayOutputStream out, List<String> lines) throws IOException {
+      if (!inParagraph && !acceptsBlockContent) {
+        throw new IOException("bookmark '" + name + "' is at a position where no text can be inserted");
+      }
+      StringBuilder sb = new StringBuilder();
+      if (!inParagraph) {
+        sb.append("<w:p>");
+      }
+      sb.append("<w:r>");
+      sb.append(rPr);
+      for (int i = 0; i < lines.size(); i++) {
+        if (i > 0) {
+          sb.append("<w:br/>");
+        }
+        sb.append("<w:t xml:space=\"preserve\">").append(escape(lines.get(i))).append("</w:t>");
+      }
+      sb.append("</w:r>");
+      if (!inParagraph) {
+        sb.append("</w:p>");
+      }
+      out.write(sb.toString().getBytes(ZipSegmentWriter.UTF8));
+    }
+
+    void writeAltChunk(ByteArrayOutputStream out, String id, boolean lastSplit) throws IOException {
+      if (!acceptsBlockContent) {
+        throw new IOException("bookmark '" + name + "' is at a position where no sub-document can be inserted");
+      }
+      if (inParagraph) {
+        out.write("</w:p>".getBytes(ZipSegmentWriter.UTF8));
+      }
+      out.write(("<w:altChunk r:id=\"" + id + "\"/>").getBytes(ZipSegmentWriter.UTF8));
+      if (inParagraph) {
+        out.write(lastSplit ? sectionReopen : paragraphReopen);
+      }
+    }
+  }
+}
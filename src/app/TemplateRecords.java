@@ -0,0 +1,460 @@
+package app;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Reads the records for a {@link TemplateFiller} from CSV or JSON lines. The
+ * records are read lazily, so large files can be streamed. Read errors are
+ * thrown as UncheckedIOException, malformed input as
+ * IllegalArgumentException.<br>
+ * Sub-documents are only read from the columns named by the caller, and only
+ * from inside a given base directory, so a data set can't pull arbitrary
+ * files into the output.<br>
+ *
+ */
+public final class TemplateRecords {
+  private TemplateRecords() {
+  }
+
+  /**
+   * Reads records with text values only from CSV (see
+   * {@link #csv(Reader, Set, File)}).<br>
+   * <br>
+   *
+   * @param reader the reader to read the CSV from
+   * @return the records
+   */
+  public static Iterator<Map<String, Object>> csv(Reader reader) {
+    return csv(reader, Collections.<String>emptySet(), null);
+  }
+
+  /**
+   * Reads records from CSV (comma separated, fields optionally quoted with '"').
+   * The first line contains the bookmark names. A value of a document column
+   * is the path of a sub-document relative to the base directory, any other
+   * value containing line breaks is used as list of lines. Empty values are
+   * skipped, so the bookmark keeps its content.<br>
+   * <br>
+   *
+   * @param reader          the reader to read the CSV from
+   * @param documentColumns the columns holding sub-document paths
+   * @param baseDir         the directory sub-documents are read from, may be
+   *                        null if there are no document columns
+   * @return the records
+   * @throws IllegalArgumentException if document columns are given without
+   *                                  base directory
+   */
+  public static Iterator<Map<String, Object>> csv(Reader reader, final Set<String> documentColumns,
+      File baseDir) {
+    final File base = canonicalBase(documentColumns, baseDir);
+    final BufferedReader in = new BufferedReader(reader);
+    final List<String> header = readCsvRecord(in);
+    if (header == null) {
+      return new ArrayList<Map<String, Object>>().iterator();
+    }
+
+    return new LazyIterator() {
+      @Override
+      Map<String, Object> readNext() {
+        List<String> fields = readCsvRecord(in);
+        if (fields == null) {
+          return null;
+        }
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < header.size() && i < fields.size(); i++) {
+          String field = fields.get(i);
+          if (field.isEmpty()) {
+            continue;
+          }
+          if (documentColumns.contains(header.get(i))) {
+            record.put(header.get(i), resolveDocument(base, field));
+          } else if (field.indexOf('\n') > -1) {
+            record.put(header.get(i), Arrays.asList(field.split("\r?\n", -1)));
+          } else {
+            record.put(header.get(i), field);
+          }
+        }
+        return record;
+      }
+    };
+  }
+
+  /**
+   * Reads records with text values only from JSON lines (see
+   * {@link #jsonLines(Reader, Set, File)}).<br>
+   * <br>
+   *
+   * @param reader the reader to read the JSON lines from
+   * @return the records
+   */
+  public static Iterator<Map<String, Object>> jsonLines(Reader reader) {
+    return jsonLines(reader, Collections.<String>emptySet(), null);
+  }
+
+  /**
+   * Reads records from JSON lines, one object per line. String values are used
+   * as text and arrays as list of lines. A value of a document column is the
+   * path of a sub-document relative to the base directory, given as string or
+   * as object of the form {"docx": "path"}. Null values are skipped, so the
+   * bookmark keeps its content.<br>
+   * <br>
+   *
+   * @param reader          the reader to read the JSON lines from
+   * @param documentColumns the keys holding sub-document paths
+   * @param baseDir         the directory sub-documents are read from, may be
+   *                        null if there are no document columns
+   * @return the records
+   * @throws IllegalArgumentException if document columns are given without
+   *                                  base directory
+   */
+  public static Iterator<Map<String, Object>> jsonLines(Reader reader, final Set<String> documentColumns,
+      File baseDir) {
+    final File base = canonicalBase(documentColumns, baseDir);
+    final BufferedReader in = new BufferedReader(reader);
+    return new LazyIterator() {
+      private int lineNumber = 0;
+
+      @Override
+      Map<String, Object> readNext() {
+        String line;
+        try {
+          do {
+            line = in.readLine();
+            lineNumber++;
+          } while (line != null && line.trim().isEmpty());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        if (line == null) {
+          return null;
+        }
+        try {
+          Map<String, Object> record = new JsonLineParser(line).parseRecord();
+          for (Map.Entry<String, Object> entry : record.entrySet()) {
+            Object value = entry.getValue();
+            if (documentColumns.contains(entry.getKey())) {
+              if (!(value instanceof String || value instanceof DocumentPath)) {
+                throw new IllegalArgumentException("\"" + entry.getKey() + "\" must be a path");
+              }
+              entry.setValue(resolveDocument(base, value.toString()));
+            } else if (value instanceof DocumentPath) {
+              throw new IllegalArgumentException("\"" + entry.getKey() + "\" is no document column");
+            }
+          }
+          return record;
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("invalid record in line " + lineNumber + ": " + e.getMessage(), e);
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the canonical form of the base directory.<br>
+   * <br>
+   */
+  private static File canonicalBase(Set<String> documentColumns, File baseDir) {
+    if (baseDir == null) {
+      if (!documentColumns.isEmpty()) {
+        throw new IllegalArgumentException("document columns need a base directory");
+      }
+      return null;
+    }
+    try {
+      return baseDir.getCanonicalFile();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Resolves the path of a sub-document against the base directory.<br>
+   * <br>
+   *
+   * @param base the canonical base directory
+   * @param path the path from the record
+   * @return the sub-document
+   * @throws IllegalArgumentException if the path leads outside of the base
+   *                                  directory
+   */
+  static File resolveDocument(File base, String path) {
+    try {
+      File file = new File(base, path).getCanonicalFile();
+      if (!file.toPath().startsWith(base.toPath())) {
+        throw new IllegalArgumentException("path outside of the base directory: " + path);
+      }
+      return file;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Reads the fields of the next CSV record.<br>
+   * <br>
+   *
+   * @return the fields or null at the end of the input
+   */
+  private static List<String> readCsvRecord(BufferedReader in) {
+    try {
+      int c = in.read();
+      if (c < 0) {
+        return null;
+      }
+
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      while (c > -1) {
+        if (quoted) {
+          if (c == '"') {
+            in.mark(1);
+            int next = in.read();
+            if (next == '"') {
+              field.append('"');
+            } else {
+              quoted = false;
+              in.reset();
+            }
+          } else {
+            field.append((char) c);
+          }
+        } else if (c == '"' && field.length() == 0) {
+          quoted = true;
+        } else if (c == ',') {
+          fields.add(field.toString());
+          field.setLength(0);
+        } else if (c == '\n') {
+          break;
+        } else if (c != '\r') {
+          field.append((char) c);
+        }
+        c = in.read();
+      }
+      fields.add(field.toString());
+      return fields;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Iterator that reads its next element on demand.<br>
+   *
+   */
+  private static abstract class LazyIterator implements Iterator<Map<String, Object>> {
+    private Map<String, Object> next;
+    private boolean done = false;
+
+    /**
+     * @return the next element or null at the end of the input
+     */
+    abstract Map<String, Object> readNext();
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        next = readNext();
+        done = next == null;
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map<String, Object> result = next;
+      next = null;
+      return result;
+    }
+  }
+
+  /**
+   * The path of a sub-document as given in a record, not yet resolved.<br>
+   *
+   */
+  private static class DocumentPath {
+    private final String path;
+
+    DocumentPath(String path) {
+      this.path = path;
+    }
+
+    @Override
+    public String toString() {
+      return path;
+    }
+  }
+
+  /**
+   * Parser for the subset of JSON used by a single record.<br>
+   *
+   */
+  private static class JsonLineParser {
+    private final String line;
+    private int pos = 0;
+
+    JsonLineParser(String line) {
+      this.line = line;
+    }
+
+    Map<String, Object> parseRecord() {
+      Map<String, Object> record = new LinkedHashMap<String, Object>();
+      expect('{');
+      if (!consume('}')) {
+        do {
+          String key = parseString();
+          expect(':');
+          Object value = parseValue();
+          if (value != null) {
+            record.put(key, value);
+          }
+        } while (consume(','));
+        expect('}');
+      }
+      skipWhitespace();
+      if (pos < line.length()) {
+        throw new IllegalArgumentException("unexpected content at " + pos);
+      }
+      return record;
+    }
+
+    private Object parseValue() {
+      skipWhitespace();
+      if (pos >= line.length()) {
+        throw new IllegalArgumentException("unexpected end");
+      }
+      char c = line.charAt(pos);
+      if (c == '"') {
+        return parseString();
+      } else if (c == '[') {
+        pos++;
+        List<String> lines = new ArrayList<String>();
+        if (!consume(']')) {
+          do {
+            Object value = parseValue();
+            if (value instanceof DocumentPath) {
+              throw new IllegalArgumentException("document in list at " + pos);
+            }
+            lines.add(value == null ? "" : value.toString());
+          } while (consume(','));
+          expect(']');
+        }
+        return lines;
+      } else if (c == '{') {
+        pos++;
+        DocumentPath path = null;
+        if (!consume('}')) {
+          do {
+            String key = parseString();
+            expect(':');
+            Object value = parseValue();
+            if ("docx".equals(key) && value != null) {
+              path = new DocumentPath(value.toString());
+            }
+          } while (consume(','));
+          expect('}');
+        }
+        if (path == null) {
+          throw new IllegalArgumentException("object without \"docx\" at " + pos);
+        }
+        return path;
+      } else {
+        int start = pos;
+        while (pos < line.length() && ",}] \t".indexOf(line.charAt(pos)) < 0) {
+          pos++;
+        }
+        String literal = line.substring(start, pos);
+        if (literal.equals("null")) {
+          return null;
+        }
+        if (literal.isEmpty()) {
+          throw new IllegalArgumentException("value expected at " + start);
+        }
+        return literal;
+      }
+    }
+
+    private String parseString() {
+      expect('"');
+      StringBuilder sb = new StringBuilder();
+      while (pos < line.length()) {
+        char c = line.charAt(pos++);
+        if (c == '"') {
+          return sb.toString();
+        }
+        if (c == '\\') {
+          if (pos >= line.length()) {
+            break;
+          }
+          char e = line.charAt(pos++);
+          switch (e) {
+          case 'n':
+            sb.append('\n');
+            break;
+          case 't':
+            sb.append('\t');
+            break;
+          case 'r':
+            sb.append('\r');
+            break;
+          case 'b':
+            sb.append('\b');
+            break;
+          case 'f':
+            sb.append('\f');
+            break;
+          case 'u':
+            if (pos + 4 > line.length()) {
+              throw new IllegalArgumentException("invalid escape at " + pos);
+            }
+            sb.append((char) Integer.parseInt(line.substring(pos, pos + 4), 16));
+            pos += 4;
+            break;
+          default:
+            sb.append(e);
+          }
+        } else {
+          sb.append(c);
+        }
+      }
+      throw new IllegalArgumentException("unterminated string");
+    }
+
+    private void skipWhitespace() {
+      while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private boolean consume(char c) {
+      skipWhitespace();
+      if (pos < line.length() && line.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if (!consume(c)) {
+        throw new IllegalArgumentException("'" + c + "' expected at " + pos);
+      }
+    }
+  }
+}
@@ -0,0 +1,323 @@
+package app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Minimal zip writer for docx packages. In contrast to ZipOutputStream it can
+ * write entries that were compressed before ({@link Part}), so parts that are
+ * the same in many packages are compressed only once and are copied as raw
+ * bytes afterwards. Zip64 is not supported, writing beyond the limits of a
+ * plain zip file (4 GB, 65534 entries) fails with an IOException.<br>
+ *
+ */
+final class ZipSegmentWriter implements Closeable {
+  final static Charset UTF8 = Charset.forName("UTF-8");
+
+  private final static int SIG_LOCAL_HEADER = 0x04034b50;
+  private final static int SIG_CENTRAL_HEADER = 0x02014b50;
+  private final static int SIG_END = 0x06054b50;
+  private final static int METHOD_DEFLATED = 8;
+  private final static int FLAG_UTF8 = 0x0800;
+
+  /** largest offset or size a plain zip file can hold (0xFFFFFFFF marks zip64) */
+  private final static long MAX_ZIP32_VALUE = 0xFFFFFFFEL;
+
+  /** largest number of entries a plain zip file can hold (0xFFFF marks zip64) */
+  private final static int MAX_ZIP32_ENTRIES = 0xFFFE;
+
+  /** 1980-01-01 00:00 in MS-DOS format, as written by Word */
+  private final static int DOS_DATE = (0 << 9) | (1 << 5) | 1;
+
+  private final OutputStream out;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final List<CentralEntry> centralDirectory = new ArrayList<CentralEntry>();
+  private long offset = 0;
+  private boolean finished = false;
+
+  /**
+   * Creates a writer. The given stream is not closed by this writer.<br>
+   * <br>
+   *
+   * @param out the stream to write the zip file to
+   */
+  ZipSegmentWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Reads all entries of the given zip file uncompressed into memory, keeping
+   * their order.<br>
+   * <br>
+   *
+   * @param file the zip file to read
+   * @return map of entry names to their data
+   * @throws IOException if the file can't be read
+   */
+  static LinkedHashMap<String, byte[]> readEntries(File file) throws IOException {
+    LinkedHashMap<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+    ZipFile zip = new ZipFile(file);
+    try {
+      Enumeration<? extends ZipEntry> entries = zip.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        InputStream in = zip.getInputStream(entry);
+        try {
+          ByteArrayOutputStream bos = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+          byte[] b = new byte[8192];
+          int len = 0;
+          while ((len = in.read(b)) > -1) {
+            bos.write(b, 0, len);
+          }
+          result.put(entry.getName(), bos.toByteArray());
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      zip.close();
+    }
+    return result;
+  }
+
+  /**
+   * Writes an entry that was compressed before.<br>
+   * <br>
+   *
+   * @param part the compressed entry
+   * @throws IOException if writing fails
+   */
+  void write(Part part) throws IOException {
+    writeEntry(part.name, part.crc, part.size, part.deflated, part.deflated.length);
+  }
+
+  /**
+   * Compresses and writes an entry.<br>
+   * <br>
+   *
+   * @param name the name of the entry
+   * @param data the uncompressed data
+   * @throws IOException if writing fails
+   */
+  void write(String name, byte[] data) throws IOException {
+    ensureOpen();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    deflater.reset();
+    deflater.setInput(data);
+    deflater.finish();
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+    byte[] b = new byte[8192];
+    while (!deflater.finished()) {
+      int len = deflater.deflate(b);
+      bos.write(b, 0, len);
+    }
+
+    writeEntry(name, (int) crc.getValue(), data.length, bos.toByteArray(), bos.size());
+  }
+
+  private void writeEntry(String name, int crc, int size, byte[] deflated, int deflatedLength) throws IOException {
+    byte[] nameBytes = name.getBytes(UTF8);
+    ensureOpen();
+    if (centralDirectory.size() >= MAX_ZIP32_ENTRIES) {
+      throw new IOException("too many entries for a zip file without zip64: " + name);
+    }
+    if (nameBytes.length > 0xFFFF) {
+      throw new IOException("entry name too long: " + name);
+    }
+    if (offset + 30 + nameBytes.length + deflatedLength > MAX_ZIP32_VALUE) {
+      throw new IOException("zip file exceeds 4 GB, zip64 is not supported: " + name);
+    }
+    centralDirectory.add(new CentralEntry(nameBytes, crc, size, deflatedLength, offset));
+
+    writeInt(SIG_LOCAL_HEADER);
+    writeShort(20);
+    writeShort(FLAG_UTF8);
+    writeShort(METHOD_DEFLATED);
+    writeShort(0);
+    writeShort(DOS_DATE);
+    writeInt(crc);
+    writeInt(deflatedLength);
+    writeInt(size);
+    writeShort(nameBytes.length);
+    writeShort(0);
+    writeBytes(nameBytes, nameBytes.length);
+    writeBytes(deflated, deflatedLength);
+  }
+
+  /**
+   * Writes the central directory. No entries may be written afterwards.<br>
+   * <br>
+   *
+   * @throws IOException if writing fails
+   */
+  void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+
+    long start = offset;
+    long directorySize = 0;
+    for (CentralEntry entry : centralDirectory) {
+      directorySize += 46 + entry.name.length;
+    }
+    if (start + directorySize + 22 > MAX_ZIP32_VALUE) {
+      throw new IOException("zip file exceeds 4 GB, zip64 is not supported");
+    }
+    for (CentralEntry entry : centralDirectory) {
+      writeInt(SIG_CENTRAL_HEADER);
+      writeShort(20);
+      writeShort(20);
+      writeShort(FLAG_UTF8);
+      writeShort(METHOD_DEFLATED);
+      writeShort(0);
+      writeShort(DOS_DATE);
+      writeInt(entry.crc);
+      writeInt(entry.compressedSize);
+      writeInt(entry.size);
+      writeShort(entry.name.length);
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeShort(0);
+      writeInt(0);
+      writeInt((int) entry.offset);
+      writeBytes(entry.name, entry.name.length);
+    }
+    long length = offset - start;
+
+    writeInt(SIG_END);
+    writeShort(0);
+    writeShort(0);
+    writeShort(centralDirectory.size());
+    writeShort(centralDirectory.size());
+    writeInt((int) length);
+    writeInt((int) start);
+    writeShort(0);
+    out.flush();
+  }
+
+  /**
+   * Finishes the zip file and releases the compressor. The underlying stream is
+   * not closed.<br>
+   * <br>
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (finished) {
+      throw new IOException("zip file is finished");
+    }
+  }
+
+  private void writeShort(int v) throws IOException {
+    out.write(v & 0xff);
+    out.write((v >>> 8) & 0xff);
+    offset += 2;
+  }
+
+  private void writeInt(int v) throws IOException {
+    out.write(v & 0xff);
+    out.write((v >>> 8) & 0xff);
+    out.write((v >>> 16) & 0xff);
+    out.write((v >>> 24) & 0xff);
+    offset += 4;
+  }
+
+  private void writeBytes(byte[] b, int len) throws IOException {
+    out.write(b, 0, len);
+    offset += len;
+  }
+
+  /**
+   * An entry of the central directory.<br>
+   *
+   */
+  private static final class CentralEntry {
+    final byte[] name;
+    final int crc;
+    final int size;
+    final int compressedSize;
+    final long offset;
+
+    CentralEntry(byte[] name, int crc, int size, int compressedSize, long offset) {
+      this.name = name;
+      this.crc = crc;
+      this.size = size;
+      this.compressedSize = compressedSize;
+      this.offset = offset;
+    }
+  }
+
+  /**
+   * A zip entry that is compressed once and can be written to many zip files.
+   * Instances are immutable.<br>
+   *
+   */
+  static final class Part {
+    final String name;
+    final int crc;
+    final int size;
+    final byte[] deflated;
+
+    private Part(String name, int crc, int size, byte[] deflated) {
+      this.name = name;
+      this.crc = crc;
+      this.size = size;
+      this.deflated = deflated;
+    }
+
+    /**
+     * Compresses the given data.<br>
+     * <br>
+     *
+     * @param name the name of the entry
+     * @param data the uncompressed data
+     * @return the compressed entry
+     */
+    static Part compress(String name, byte[] data) {
+      CRC32 crc = new CRC32();
+      crc.update(data);
+
+      Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+      try {
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        byte[] b = new byte[8192];
+        while (!deflater.finished()) {
+          int len = deflater.deflate(b);
+          bos.write(b, 0, len);
+        }
+        return new Part(name, (int) crc.getValue(), data.length, bos.toByteArray());
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+}
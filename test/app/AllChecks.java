@@ -0,0 +1,20 @@
+package app;
+
+/**
+ * Runs all unit checks. Exits with a failure if a check fails.<br>
+ *
+ */
+public class AllChecks {
+  public static void main(String[] args) throws Exception {
+    BodyXmlCheck.main(args);
+    DocxMergerCheck.main(args);
+    DocxSplitterCheck.main(args);
+    ImageOptimizerCheck.main(args);
+    MergePipelineCheck.main(args);
+    PreflightScannerCheck.main(args);
+    TemplateFillerCheck.main(args);
+    TemplateRecordsCheck.main(args);
+    ZipSegmentWriterCheck.main(args);
+    System.out.println("all checks passed");
+  }
+}
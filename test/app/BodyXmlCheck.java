@@ -0,0 +1,102 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Unit checks for {@link BodyXml}.<br>
+ *
+ */
+public class BodyXmlCheck {
+  public static void main(String[] args) {
+    bodyContent();
+    topLevelElements();
+    elementPath();
+    paragraphs();
+    referencedRelationIds();
+    System.out.println("BodyXmlCheck passed");
+  }
+
+  private static void bodyContent() {
+    String xml = "<w:document><w:body><w:p/></w:body></w:document>";
+    checkEquals("<w:p/>", xml.substring(BodyXml.bodyContentStart(xml), BodyXml.bodyContentEnd(xml)), "plain body");
+    xml = "<w:document><w:body a=\"x>y\"><w:p/></w:body></w:document>";
+    checkEquals("<w:p/>", xml.substring(BodyXml.bodyContentStart(xml), BodyXml.bodyContentEnd(xml)),
+        "body with attribute");
+    checkEquals(-1, BodyXml.bodyContentStart("<w:document/>"), "no body");
+  }
+
+  private static void topLevelElements() {
+    String xml = "<w:p><w:r><w:t>a</w:t></w:r></w:p><!-- <w:p> --><w:tbl><w:tr/></w:tbl>"
+        + "<?pi x?><w:sectPr w:rsidR=\"1\"/><w:p a=\"/>\"></w:p>";
+    List<String> elements = new ArrayList<String>();
+    for (int[] range : BodyXml.topLevelElements(xml, 0, xml.length())) {
+      elements.add(xml.substring(range[0], range[1]));
+    }
+    checkEquals(Arrays.asList("<w:p><w:r><w:t>a</w:t></w:r></w:p>", "<w:tbl><w:tr/></w:tbl>",
+        "<w:sectPr w:rsidR=\"1\"/>", "<w:p a=\"/>\"></w:p>"), elements, "top level elements");
+
+    int from = xml.indexOf("<w:tbl>");
+    int to = xml.indexOf("<?pi");
+    checkEquals(1, BodyXml.topLevelElements(xml, from, to).size(), "range");
+    checkEquals(0, BodyXml.topLevelElements("", 0, 0).size(), "empty");
+  }
+
+  private static void elementPath() {
+    checkEquals(true, acceptsAt("<w:p/><w:p><w:r/>|</w:p>"), "in paragraph");
+    checkEquals(true, acceptsAt("<w:p/>|<w:p/>"), "body level");
+    checkEquals(true, acceptsAt("<w:tbl><w:tr><w:tc>|<w:p/></w:tc></w:tr></w:tbl>"), "table cell");
+    checkEquals(true, acceptsAt("<w:sdt><w:sdtContent>|<w:p/></w:sdtContent></w:sdt>"), "block content control");
+    checkEquals(false, acceptsAt("<w:tbl><w:tr>|<w:tc/></w:tr></w:tbl>"), "table row");
+    checkEquals(false, acceptsAt("<w:tbl>|<w:tr/></w:tbl>"), "table");
+    checkEquals(false, acceptsAt("<w:tbl><w:sdt><w:sdtContent>|<w:tr/></w:sdtContent></w:sdt></w:tbl>"),
+        "row level content control");
+    checkEquals(false, acceptsAt("<w:p><w:hyperlink r:id=\"rId1\">|</w:hyperlink></w:p>"), "hyperlink");
+    checkEquals(false, acceptsAt("<w:p><w:sdt><w:sdtContent>|</w:sdtContent></w:sdt></w:p>"),
+        "run level content control");
+    checkEquals(true, acceptsAt("<w:p><!-- <w:hyperlink> --><w:fldSimple/>|</w:p>"), "comment and empty tag");
+
+    String xml = "<w:body><w:p w:rsidR=\"1\"><w:r/>";
+    BodyXml.ElementPath path = new BodyXml.ElementPath(xml, 0);
+    path.advanceTo(xml.length());
+    checkEquals("w:p", path.parent(), "parent");
+    checkEquals(8, path.parentStart(), "parent start");
+    path = new BodyXml.ElementPath(xml, 0);
+    path.advanceTo(0);
+    checkEquals(null, path.parent(), "top level");
+    checkEquals(-1, path.parentStart(), "top level start");
+  }
+
+  private static boolean acceptsAt(String marked) {
+    int pos = marked.indexOf('|');
+    String xml = marked.substring(0, pos) + marked.substring(pos + 1);
+    BodyXml.ElementPath path = new BodyXml.ElementPath(xml, 0);
+    path.advanceTo(pos);
+    return path.acceptsBlockContent();
+  }
+
+  private static void paragraphs() {
+    String xml = "<w:p w:rsidR=\"1\"><w:pPr><w:jc w:val=\"center\"/><w:sectPr><w:pgSz/></w:sectPr></w:pPr>"
+        + "<w:r/><w:bookmarkStart/></w:p><w:bookmarkStart/>";
+    checkEquals(xml.substring(0, xml.indexOf("<w:r/>")), BodyXml.paragraphReopen(xml, 0),
+        "reopen with section break");
+    checkEquals("<w:p>", BodyXml.paragraphReopen("<w:p><w:r/></w:p>", 0), "reopen without properties");
+    int[] sectPr = BodyXml.paragraphSectPr(xml, 0);
+    checkEquals("<w:sectPr><w:pgSz/></w:sectPr>", xml.substring(sectPr[0], sectPr[1]), "section break");
+    checkEquals(null, BodyXml.paragraphSectPr("<w:p><w:pPr/></w:p><w:sectPr/>", 0), "no section break");
+    checkEquals(null, BodyXml.paragraphSectPr("<w:p><w:r/></w:p><w:p><w:pPr><w:sectPr/></w:pPr></w:p>", 0),
+        "section break of the next paragraph");
+  }
+
+  private static void referencedRelationIds() {
+    String xml = "<a:blip r:embed=\"rId3\" r:link=\"rId4\"/><w:p w:id=\"rId5\"/><v:imagedata r:id=\"rId3\"/>";
+    checkEquals(new HashSet<String>(Arrays.asList("rId3", "rId4")), BodyXml.referencedRelationIds(xml),
+        "referenced ids");
+    check(BodyXml.referencedRelationIds("<w:p/>").isEmpty(), "no ids");
+  }
+}
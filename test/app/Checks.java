@@ -0,0 +1,51 @@
+package app;
+
+import java.util.Arrays;
+
+/**
+ * Minimal assertions for the unit checks, which run without a test
+ * framework.<br>
+ *
+ */
+final class Checks {
+  private Checks() {
+  }
+
+  static void check(boolean condition, String message) {
+    if (!condition) {
+      throw new AssertionError(message);
+    }
+  }
+
+  static void checkEquals(Object expected, Object actual, String message) {
+    if (expected == null ? actual != null : !expected.equals(actual)) {
+      throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+    }
+  }
+
+  static void checkBytes(byte[] expected, byte[] actual, String message) {
+    if (!Arrays.equals(expected, actual)) {
+      throw new AssertionError(message + ": content differs");
+    }
+  }
+
+  /**
+   * Checks that the given code throws an exception of the given type.<br>
+   * <br>
+   */
+  static <T extends Throwable> T checkThrows(Class<T> type, ThrowingRunnable code, String message) {
+    try {
+      code.run();
+    } catch (Throwable t) {
+      if (type.isInstance(t)) {
+        return type.cast(t);
+      }
+      throw new AssertionError(message + ": unexpected " + t, t);
+    }
+    throw new AssertionError(message + ": no " + type.getSimpleName() + " thrown");
+  }
+
+  interface ThrowingRunnable {
+    void run() throws Exception;
+  }
+}
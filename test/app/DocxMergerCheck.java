@@ -0,0 +1,170 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Unit checks for {@link DocxMerger}, partly run against the docx
+ * fixtures.<br>
+ *
+ */
+public class DocxMergerCheck {
+  public static void main(String[] args) throws Exception {
+    remapPrefixIds();
+    remapOnlyRelationAttributes();
+    remapWithoutIds();
+    insertAtBookmarks();
+    insertErrors();
+    insertSectionBreak();
+    System.out.println("DocxMergerCheck passed");
+  }
+
+  /** 'rId1' must not be replaced inside 'rId10' and the other way round */
+  private static void remapPrefixIds() {
+    Map<String, String> ids = new HashMap<String, String>();
+    ids.put("rId1", "rId10");
+    ids.put("rId10", "rId11");
+    String body = "<a:blip r:embed=\"rId1\"/><a:blip r:embed=\"rId10\"/><w:altChunk r:id=\"rId1\"/>";
+    checkEquals("<a:blip r:embed=\"rId10\"/><a:blip r:embed=\"rId11\"/><w:altChunk r:id=\"rId10\"/>",
+        DocxMerger.remapRelationIds(body, ids), "chained and prefix ids");
+  }
+
+  private static void remapOnlyRelationAttributes() {
+    Map<String, String> ids = new HashMap<String, String>();
+    ids.put("rId1", "rId5");
+    String body = "<w:bookmarkStart w:id=\"rId1\" w:name=\"rId1\"/><w:t>rId1</w:t><w:hyperlink r:id=\"rId1\"/>"
+        + "<w:object r:unknown=\"rId2\"/>";
+    checkEquals("<w:bookmarkStart w:id=\"rId1\" w:name=\"rId1\"/><w:t>rId1</w:t><w:hyperlink r:id=\"rId5\"/>"
+        + "<w:object r:unknown=\"rId2\"/>", DocxMerger.remapRelationIds(body, ids), "other attributes and text");
+  }
+
+  private static void remapWithoutIds() {
+    String body = "<a:blip r:embed=\"rId1\"/>";
+    checkEquals(body, DocxMerger.remapRelationIds(body, new HashMap<String, String>()), "empty map");
+  }
+
+  /** Sub.docx at two bookmarks of Main.docx, the result is reopened */
+  private static void insertAtBookmarks() throws Exception {
+    DocxMerger merger = new DocxMerger();
+    Map<String, XWPFDocument> insertions = new HashMap<String, XWPFDocument>();
+    insertions.put("Adresse", open(new File("docx/Sub.docx")));
+    insertions.put("Bindungsfrist", open(new File("docx/Sub.docx")));
+    XWPFDocument result = merger.insert(open(new File("docx/Main.docx")), insertions);
+    String xml;
+    try {
+      xml = mainPart(result);
+    } finally {
+      merger.release(result);
+    }
+
+    List<String> ids = new ArrayList<String>();
+    List<String> names = new ArrayList<String>();
+    int ind1 = xml.indexOf("<w:bookmarkStart");
+    while (ind1 > -1) {
+      String tag = xml.substring(ind1, xml.indexOf(">", ind1) + 1);
+      ids.add(DocxPackage.getAttribute(tag, "w:id"));
+      names.add(DocxPackage.getAttribute(tag, "w:name"));
+      ind1 = xml.indexOf("<w:bookmarkStart", ind1 + 1);
+    }
+    checkEquals(ids.size(), new HashSet<String>(ids).size(), "unique bookmark ids " + ids);
+    checkEquals(2, Collections.frequency(names, "Abnahmestelle"), "both insertions");
+    check(names.contains("Adresse") && names.contains("Bindungsfrist"), "target bookmarks kept");
+    check(xml.indexOf("w:name=\"Abnahmestelle\"") > xml.indexOf("w:name=\"Adresse\""), "inserted after start");
+  }
+
+  private static void insertErrors() throws Exception {
+    final DocxMerger merger = new DocxMerger();
+    final XWPFDocument master = open(new File("docx/Main.docx"));
+    MergeException e = checkThrows(MergeException.class, new Checks.ThrowingRunnable() {
+      @Override
+      public void run() throws Exception {
+        merger.insert(master, Collections.singletonMap("Fehlt", open(new File("docx/Sub.docx"))));
+      }
+    }, "missing bookmark");
+    check(e.getMessage().contains("Fehlt"), "missing bookmark named: " + e.getMessage());
+
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    String xml = Fixtures.getString(entries, Fixtures.MAIN_PART);
+    int row = xml.indexOf(">", xml.indexOf("<w:tr ")) + 1;
+    Fixtures.putString(entries, Fixtures.MAIN_PART, xml.substring(0, row)
+        + "<w:bookmarkStart w:id=\"90\" w:name=\"Zeile\"/><w:bookmarkEnd w:id=\"90\"/>" + xml.substring(row));
+    File file = Fixtures.write(entries);
+    try {
+      final XWPFDocument rowMaster = open(file);
+      e = checkThrows(MergeException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          merger.insert(rowMaster, Collections.singletonMap("Zeile", open(new File("docx/Sub.docx"))));
+        }
+      }, "bookmark between table rows");
+      check(e.getMessage().contains("illegal position"), "illegal position: " + e.getMessage());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** the section break of a split paragraph moves to its last part */
+  private static void insertSectionBreak() throws Exception {
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    Fixtures.putString(entries, Fixtures.MAIN_PART,
+        Fixtures.sectionParagraph(Fixtures.getString(entries, Fixtures.MAIN_PART)));
+    File file = Fixtures.write(entries);
+    DocxMerger merger = new DocxMerger();
+    String xml;
+    try {
+      Map<String, XWPFDocument> insertions = new HashMap<String, XWPFDocument>();
+      insertions.put("Angebotspositionen", open(new File("docx/Sub.docx")));
+      insertions.put("Zusatz", open(new File("docx/Sub.docx")));
+      XWPFDocument result = merger.insert(open(file), insertions);
+      try {
+        xml = mainPart(result);
+      } finally {
+        merger.release(result);
+      }
+    } finally {
+      file.delete();
+    }
+
+    String sectPr = "<w:type w:val=\"continuous\"/>";
+    int ind1 = xml.indexOf(sectPr);
+    checkEquals(-1, xml.indexOf(sectPr, ind1 + 1), "single section break");
+    int zusatz = xml.indexOf("w:name=\"Zusatz\"");
+    int lastInserted = xml.lastIndexOf("w:name=\"Abnahmestelle\"");
+    check(lastInserted > zusatz && ind1 > lastInserted, "section break after the last part");
+    check(xml.lastIndexOf("<w:p ", ind1) > lastInserted, "section break in the continued paragraph");
+  }
+
+  private static XWPFDocument open(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      return new XWPFDocument(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /** writes and reopens the document and returns its main part */
+  private static String mainPart(XWPFDocument doc) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    doc.write(out);
+    XWPFDocument reopened = new XWPFDocument(new ByteArrayInputStream(out.toByteArray()));
+    return reopened.getDocument().getBody().xmlText();
+  }
+}
@@ -0,0 +1,77 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Unit checks for {@link DocxSplitter}, run against the docx fixtures.<br>
+ *
+ */
+public class DocxSplitterCheck {
+  private final static String IMAGE = "word/media/image1.jpeg";
+
+  public static void main(String[] args) throws Exception {
+    sharedPartsKept();
+    System.out.println("DocxSplitterCheck passed");
+  }
+
+  /**
+   * a picture the main part stops referencing is kept, because the headers of
+   * every piece still show it
+   */
+  private static void sharedPartsKept() throws Exception {
+    File dir = File.createTempFile("splitcheck", "");
+    dir.delete();
+    dir.mkdir();
+    try {
+      // the main part references the header picture too, but no piece uses it
+      LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+      String rels = Fixtures.getString(entries, Fixtures.MAIN_RELS);
+      Fixtures.putString(entries, Fixtures.MAIN_RELS, rels.replace("</Relationships>", "<Relationship Id=\"rId99\""
+          + " Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/image\""
+          + " Target=\"media/image1.jpeg\"/></Relationships>"));
+      File input = Fixtures.write(entries);
+
+      DocxSplitter splitter = new DocxSplitter(false, null,
+          new HashSet<String>(Arrays.asList("Adresse", "Angebotspositionen")), 2);
+      List<File> pieces;
+      try {
+        pieces = splitter.split(input, dir, "piece-%d.docx");
+      } finally {
+        splitter.close();
+        input.delete();
+      }
+      checkEquals(3, pieces.size(), "number of pieces");
+
+      for (File piece : pieces) {
+        LinkedHashMap<String, byte[]> pieceEntries = ZipSegmentWriter.readEntries(piece);
+        String pieceRels = Fixtures.getString(pieceEntries, Fixtures.MAIN_RELS);
+        check(!pieceRels.contains("rId99"), piece + " keeps the unused relation");
+        check(pieceEntries.containsKey("word/_rels/header1.xml.rels"), piece + " lost the header relations");
+        check(pieceEntries.containsKey(IMAGE), piece + " lost the header picture");
+
+        InputStream in = new FileInputStream(piece);
+        try {
+          check(!new XWPFDocument(in).getHeaderList().isEmpty(), piece + " has no headers");
+        } finally {
+          in.close();
+        }
+      }
+    } finally {
+      for (File file : dir.listFiles()) {
+        file.delete();
+      }
+      dir.delete();
+    }
+  }
+}
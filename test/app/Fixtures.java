@@ -0,0 +1,72 @@
+package app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Creates variants of the docx fixtures for the unit checks.<br>
+ *
+ */
+final class Fixtures {
+  final static String MAIN_PART = "word/document.xml";
+  final static String MAIN_RELS = "word/_rels/document.xml.rels";
+
+  private Fixtures() {
+  }
+
+  /**
+   * Reads the entries of a fixture of the 'docx' directory.<br>
+   * <br>
+   */
+  static LinkedHashMap<String, byte[]> read(String name) throws IOException {
+    return ZipSegmentWriter.readEntries(new File("docx", name));
+  }
+
+  static String getString(Map<String, byte[]> entries, String name) {
+    return new String(entries.get(name), ZipSegmentWriter.UTF8);
+  }
+
+  static void putString(Map<String, byte[]> entries, String name, String text) {
+    entries.put(name, text.getBytes(ZipSegmentWriter.UTF8));
+  }
+
+  /**
+   * Writes the given entries to a temporary docx file, which the caller
+   * deletes.<br>
+   * <br>
+   */
+  static File write(Map<String, byte[]> entries) throws IOException {
+    File file = File.createTempFile("fixture", ".docx");
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+    try {
+      ZipSegmentWriter writer = new ZipSegmentWriter(out);
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        writer.write(entry.getKey(), entry.getValue());
+      }
+      writer.close();
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  /**
+   * Returns the main part of Main.docx where the paragraph of the bookmark
+   * 'Angebotspositionen' ends a section and holds a second bookmark
+   * 'Zusatz'.<br>
+   * <br>
+   */
+  static String sectionParagraph(String xml) {
+    int bookmark = xml.indexOf("<w:bookmarkStart w:id=\"7\" w:name=\"Angebotspositionen\"/>");
+    int pPrEnd = xml.lastIndexOf("</w:pPr>", bookmark);
+    int pEnd = xml.indexOf("</w:p>", bookmark);
+    return xml.substring(0, pPrEnd) + "<w:sectPr><w:type w:val=\"continuous\"/></w:sectPr>"
+        + xml.substring(pPrEnd, pEnd) + "<w:r><w:t>x</w:t></w:r><w:bookmarkStart w:id=\"91\" w:name=\"Zusatz\"/>"
+        + "<w:bookmarkEnd w:id=\"91\"/>" + xml.substring(pEnd);
+  }
+}
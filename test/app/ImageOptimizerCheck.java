@@ -0,0 +1,92 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.apache.poi.xwpf.usermodel.Document;
+
+/**
+ * Unit checks for {@link ImageOptimizer}.<br>
+ *
+ */
+public class ImageOptimizerCheck {
+  /** one inch in english metric units */
+  private final static long INCH = 914400;
+
+  public static void main(String[] args) throws Exception {
+    downscale();
+    unscaledPassThrough();
+    croppedExtent();
+    System.out.println("ImageOptimizerCheck passed");
+  }
+
+  /** a large picture shown at 2 x 1 inch is reduced to 150 dpi */
+  private static void downscale() throws Exception {
+    byte[] data = jpeg(3000, 1500);
+    ImageOptimizer optimizer = new ImageOptimizer(150, 0.8f, 1);
+    try {
+      ImageOptimizer.OptimizedPicture opt = optimizer.optimize(data, Document.PICTURE_TYPE_JPEG,
+          new long[] { 2 * INCH, INCH });
+      checkEquals(Document.PICTURE_TYPE_JPEG, opt.getType(), "type");
+      check(opt.getData().length < data.length, "smaller");
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(opt.getData()));
+      checkEquals(300, image.getWidth(), "width");
+      checkEquals(150, image.getHeight(), "height");
+    } finally {
+      optimizer.close();
+    }
+  }
+
+  /** pictures that need no downsampling or have no known size stay as they are */
+  private static void unscaledPassThrough() throws Exception {
+    byte[] data = jpeg(300, 150);
+    ImageOptimizer optimizer = new ImageOptimizer(150, 0.8f, 1);
+    try {
+      check(data == optimizer.optimize(data, Document.PICTURE_TYPE_JPEG, new long[] { 4 * INCH, 2 * INCH })
+          .getData(), "unscaled");
+      check(data == optimizer.optimize(data, Document.PICTURE_TYPE_JPEG, null).getData(), "unknown size");
+      byte[] broken = { 1, 2, 3 };
+      check(broken == optimizer.optimize(broken, Document.PICTURE_TYPE_PNG, new long[] { INCH, INCH }).getData(),
+          "not decodable");
+    } finally {
+      optimizer.close();
+    }
+  }
+
+  /** a cropped picture needs the resolution of the whole picture */
+  private static void croppedExtent() {
+    String xml = "<w:drawing><wp:inline><wp:extent cx=\"1000\" cy=\"2000\"/><pic:blipFill>"
+        + "<a:blip r:embed=\"rId5\"/><a:srcRect l=\"25000\" r=\"25000\" b=\"50000\"/></pic:blipFill>"
+        + "</wp:inline></w:drawing><w:drawing><wp:extent cx=\"500\" cy=\"500\"/><a:blip r:embed=\"rId6\"/>"
+        + "</w:drawing>";
+    Map<String, long[]> extents = ImageOptimizer.collectExtents(xml);
+    checkEquals(2000L, extents.get("rId5")[0], "cropped width");
+    checkEquals(4000L, extents.get("rId5")[1], "cropped height");
+    checkEquals(500L, extents.get("rId6")[0], "uncropped width");
+  }
+
+  private static byte[] jpeg(int width, int height) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = image.createGraphics();
+    try {
+      g.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+      g.fillRect(0, 0, width, height);
+    } finally {
+      g.dispose();
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpeg", out);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,169 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Unit checks for {@link MergePipeline}, run against the docx fixtures.<br>
+ *
+ */
+public class MergePipelineCheck {
+  private final static File MAIN = new File("docx/Main.docx");
+  private final static File SUB = new File("docx/Sub.docx");
+
+  /** the directory of the temporary packages created by POI */
+  private final static File POI_FILES = new File(System.getProperty("java.io.tmpdir"), "poifiles");
+
+  public static void main(String[] args) throws Exception {
+    readAhead();
+    stopOnFailedWrite();
+    cleanupOnCancel();
+    System.out.println("MergePipelineCheck passed");
+  }
+
+  /** inputs are scanned ahead of the merges, but no further than the lookahead */
+  private static void readAhead() throws Exception {
+    final AtomicInteger scans = new AtomicInteger();
+    final AtomicInteger scansAtFirstMerge = new AtomicInteger(-1);
+    PreflightScanner scanner = new PreflightScanner() {
+      @Override
+      public PreflightResult scan(File file) throws IOException {
+        scans.incrementAndGet();
+        return super.scan(file);
+      }
+    };
+    DocxMerger merger = new DocxMerger() {
+      @Override
+      public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd, MergeReport report,
+          MergeControl control) throws MergeException {
+        if (scansAtFirstMerge.get() < 0) {
+          // the readers may still be busy with the inputs ahead
+          long end = System.currentTimeMillis() + 5000;
+          while (scans.get() < 4 && System.currentTimeMillis() < end) {
+            sleep(10);
+          }
+          sleep(200);
+          scansAtFirstMerge.set(scans.get());
+        }
+        return super.merge(sourceDoc, docToAdd, report, control);
+      }
+    };
+
+    File output = File.createTempFile("pipelinecheck", ".docx");
+    MergePipeline pipeline = new MergePipeline(merger, scanner, 2, 3, 1);
+    try {
+      MergeReport report = new MergeReport();
+      pipeline.merge(Arrays.asList(MAIN, SUB, SUB, SUB, SUB, SUB), output, report, MergeControl.NONE);
+      // the first two inputs are taken, three are read ahead
+      checkEquals(4, scansAtFirstMerge.get(), "inputs scanned at the first merge");
+      checkEquals(6, report.getInputs(), "scanned inputs");
+      checkEquals(6L, report.getStageItems(PipelineStage.READ), "read items");
+      checkEquals(5L, report.getStageItems(PipelineStage.MERGE), "merge items");
+      check(output.length() > 0, "written");
+    } finally {
+      pipeline.close();
+      output.delete();
+    }
+  }
+
+  /** a failed write stops the batch before the remaining jobs are merged */
+  private static void stopOnFailedWrite() throws Exception {
+    final AtomicInteger merges = new AtomicInteger();
+    DocxMerger merger = new DocxMerger() {
+      @Override
+      public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd, MergeReport report,
+          MergeControl control) throws MergeException {
+        merges.incrementAndGet();
+        return super.merge(sourceDoc, docToAdd, report, control);
+      }
+    };
+    final List<List<File>> jobs = new ArrayList<List<File>>();
+    for (int i = 0; i < 10; i++) {
+      jobs.add(Arrays.asList(MAIN, SUB));
+    }
+    int tempFiles = count(POI_FILES);
+
+    final MergePipeline pipeline = new MergePipeline(merger);
+    try {
+      checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          pipeline.mergeAll(jobs, new File("does/not/exist"), "merged-%02d.docx", null, MergeControl.NONE);
+        }
+      }, "write to a missing directory");
+      check(merges.get() < jobs.size(), "stopped early after " + merges.get() + " merges");
+    } finally {
+      pipeline.close();
+    }
+    checkEquals(tempFiles, awaitCount(POI_FILES, tempFiles), "temporary files after a failed write");
+  }
+
+  /** no temporary files are left when a run is cancelled */
+  private static void cleanupOnCancel() throws Exception {
+    final CancellationToken token = new CancellationToken();
+    DocxMerger merger = new DocxMerger() {
+      @Override
+      public XWPFDocument merge(XWPFDocument sourceDoc, XWPFDocument docToAdd, MergeReport report,
+          MergeControl control) throws MergeException {
+        XWPFDocument merged = super.merge(sourceDoc, docToAdd, report, control);
+        token.cancel();
+        return merged;
+      }
+    };
+    final List<List<File>> jobs = new ArrayList<List<File>>();
+    for (int i = 0; i < 3; i++) {
+      jobs.add(Arrays.asList(MAIN, SUB, SUB));
+    }
+    final File dir = File.createTempFile("pipelinecheck", "");
+    dir.delete();
+    dir.mkdir();
+    int tempFiles = count(POI_FILES);
+
+    final MergePipeline pipeline = new MergePipeline(merger);
+    try {
+      checkThrows(MergeCancelledException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          pipeline.mergeAll(jobs, dir, "merged-%02d.docx", null, MergeControl.withToken(token));
+        }
+      }, "cancelled run");
+    } finally {
+      pipeline.close();
+    }
+    checkEquals(tempFiles, awaitCount(POI_FILES, tempFiles), "temporary files after cancellation");
+    checkEquals(0, count(dir), "written files");
+    dir.delete();
+  }
+
+  private static int count(File dir) {
+    String[] names = dir.list();
+    return names == null ? 0 : names.length;
+  }
+
+  /** waits a while for pending writes to release their files */
+  private static int awaitCount(File dir, int expected) {
+    long end = System.currentTimeMillis() + 5000;
+    while (count(dir) != expected && System.currentTimeMillis() < end) {
+      sleep(10);
+    }
+    return count(dir);
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
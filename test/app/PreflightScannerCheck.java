@@ -0,0 +1,84 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Unit checks for {@link PreflightScanner}, run against the docx
+ * fixtures.<br>
+ *
+ */
+public class PreflightScannerCheck {
+  public static void main(String[] args) throws Exception {
+    accepted();
+    rejected();
+    rejectedByPipeline();
+    System.out.println("PreflightScannerCheck passed");
+  }
+
+  private static void accepted() throws Exception {
+    PreflightResult result = new PreflightScanner().scan(new File("docx/Main.docx"));
+    check(result.isAccepted(), "Main.docx accepted: " + result.getProblems());
+    checkEquals(Fixtures.MAIN_PART, result.getMainPartName(), "main part");
+    checkEquals(9, result.getBookmarkCount(), "bookmarks");
+    check(result.isSampleComplete(), "complete sample");
+  }
+
+  private static void rejected() throws Exception {
+    PreflightScanner scanner = new PreflightScanner();
+    check(!scanner.scan(new File(".classpath")).isAccepted(), "not a zip file");
+
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    entries.remove("_rels/.rels");
+    File file = Fixtures.write(entries);
+    try {
+      PreflightResult result = scanner.scan(file);
+      checkEquals(Arrays.asList("missing part _rels/.rels"), result.getProblems(), "missing package relations");
+    } finally {
+      file.delete();
+    }
+
+    file = zipBomb();
+    try {
+      PreflightResult result = scanner.scan(file);
+      check(!result.isAccepted(), "compression ratio");
+      check(result.getProblems().get(0).startsWith("suspicious compression ratio of entry word/media/zeros.bin"),
+          "compression ratio problem: " + result.getProblems());
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** the pipeline doesn't load inputs that are rejected */
+  private static void rejectedByPipeline() throws Exception {
+    final File file = zipBomb();
+    final File output = File.createTempFile("preflightcheck", ".docx");
+    final MergePipeline pipeline = new MergePipeline(new DocxMerger());
+    try {
+      IOException e = checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          pipeline.merge(Arrays.asList(new File("docx/Main.docx"), file), output, null, MergeControl.NONE);
+        }
+      }, "rejected input");
+      check(e.getMessage().startsWith("rejected " + file), "rejection message: " + e.getMessage());
+    } finally {
+      pipeline.close();
+      file.delete();
+      output.delete();
+    }
+  }
+
+  /** Main.docx with a highly compressible media entry */
+  private static File zipBomb() throws IOException {
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    entries.put("word/media/zeros.bin", new byte[8 * 1024 * 1024]);
+    return Fixtures.write(entries);
+  }
+}
@@ -0,0 +1,155 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+/**
+ * Unit checks for {@link TemplateFiller}, run against the docx fixtures.<br>
+ *
+ */
+public class TemplateFillerCheck {
+  public static void main(String[] args) throws Exception {
+    fillValues();
+    rejectedPositions();
+    sectionBreaks();
+    System.out.println("TemplateFillerCheck passed");
+  }
+
+  /** text, lines and a sub-document filled into the bookmarks of Main.docx */
+  private static void fillValues() throws Exception {
+    Map<String, Object> record = new HashMap<String, Object>();
+    record.put("Mitarbeiter", "Doe & Partner");
+    record.put("Adresse", Arrays.asList("John Doe", "Main Street 1"));
+    record.put("Angebotspositionen", new File("docx/Sub.docx"));
+
+    TemplateFiller filler = new TemplateFiller(new File("docx/Main.docx"), 1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      check(filler.getBookmarkNames().containsAll(record.keySet()), "bookmark names");
+      filler.fill(record, out);
+    } finally {
+      filler.close();
+    }
+
+    File file = writeTemp(out.toByteArray());
+    try {
+      LinkedHashMap<String, byte[]> entries = ZipSegmentWriter.readEntries(file);
+      String xml = Fixtures.getString(entries, Fixtures.MAIN_PART);
+      check(xml.contains("<w:t xml:space=\"preserve\">Doe &amp; Partner</w:t>"), "escaped text");
+      check(xml.contains("John Doe</w:t><w:br/><w:t xml:space=\"preserve\">Main Street 1</w:t>"), "lines");
+      check(xml.contains("</w:p><w:altChunk r:id=\"tfChunk1\"/><w:p"), "sub-document splits the paragraph");
+      check(entries.containsKey("word/tfchunk1.docx"), "sub-document part");
+      check(Fixtures.getString(entries, Fixtures.MAIN_RELS).contains("Target=\"tfchunk1.docx\""),
+          "sub-document relation");
+
+      XWPFDocument doc = new XWPFDocument(new ByteArrayInputStream(out.toByteArray()));
+      checkEquals(false, doc.getParagraphs().isEmpty(), "filled document opens");
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** values for a bookmark between table rows are rejected */
+  private static void rejectedPositions() throws Exception {
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    String xml = Fixtures.getString(entries, Fixtures.MAIN_PART);
+    int row = xml.indexOf(">", xml.indexOf("<w:tr ")) + 1;
+    Fixtures.putString(entries, Fixtures.MAIN_PART, xml.substring(0, row)
+        + "<w:bookmarkStart w:id=\"90\" w:name=\"Zeile\"/><w:bookmarkEnd w:id=\"90\"/>" + xml.substring(row));
+    File template = Fixtures.write(entries);
+
+    final TemplateFiller filler = new TemplateFiller(template, 1);
+    try {
+      checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          filler.fill(Collections.singletonMap("Zeile", "text"), new ByteArrayOutputStream());
+        }
+      }, "text between rows");
+      checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          filler.fill(Collections.singletonMap("Zeile", new File("docx/Sub.docx")), new ByteArrayOutputStream());
+        }
+      }, "sub-document between rows");
+    } finally {
+      filler.close();
+      template.delete();
+    }
+  }
+
+  /** the section break of a split paragraph moves to its last part */
+  private static void sectionBreaks() throws Exception {
+    LinkedHashMap<String, byte[]> entries = Fixtures.read("Main.docx");
+    Fixtures.putString(entries, Fixtures.MAIN_PART,
+        Fixtures.sectionParagraph(Fixtures.getString(entries, Fixtures.MAIN_PART)));
+    File template = Fixtures.write(entries);
+    File sub = new File("docx/Sub.docx");
+    TemplateFiller filler = new TemplateFiller(template, 1);
+    try {
+      checkEquals(false, filler.getBookmarkNames().contains(null), "section breaks are no bookmarks");
+
+      String xml = fillMainPart(filler, Collections.singletonMap("Zusatz", "text"));
+      check(xml.contains("<w:sectPr><w:type w:val=\"continuous\"/></w:sectPr></w:pPr>"
+          + "<w:bookmarkStart w:id=\"7\""), "section break kept without split");
+
+      xml = fillMainPart(filler, Collections.singletonMap("Angebotspositionen", sub));
+      checkSectionBreak(xml, "<w:altChunk r:id=\"tfChunk1\"/>", "split once");
+
+      Map<String, Object> record = new HashMap<String, Object>();
+      record.put("Angebotspositionen", sub);
+      record.put("Zusatz", sub);
+      xml = fillMainPart(filler, record);
+      checkSectionBreak(xml, "<w:altChunk r:id=\"tfChunk2\"/>", "split twice");
+    } finally {
+      filler.close();
+      template.delete();
+    }
+  }
+
+  /** checks that the only section break of the paragraph follows the last altChunk */
+  private static void checkSectionBreak(String xml, String lastChunk, String message) {
+    String sectPr = "<w:sectPr><w:type w:val=\"continuous\"/></w:sectPr>";
+    int ind1 = xml.indexOf(sectPr);
+    checkEquals(-1, xml.indexOf(sectPr, ind1 + 1), message + ": single section break");
+    check(ind1 > xml.indexOf(lastChunk), message + ": section break after the last part");
+    check(ind1 < xml.indexOf("</w:p>", xml.indexOf(lastChunk)), message + ": section break in the last part");
+  }
+
+  private static String fillMainPart(TemplateFiller filler, Map<String, ?> record) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    filler.fill(record, out);
+    File file = writeTemp(out.toByteArray());
+    try {
+      return Fixtures.getString(ZipSegmentWriter.readEntries(file), Fixtures.MAIN_PART);
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static File writeTemp(byte[] data) throws IOException {
+    File file = File.createTempFile("fillcheck", ".docx");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+}
@@ -0,0 +1,107 @@
+package app;
+
+import static app.Checks.check;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit checks for {@link TemplateRecords}.<br>
+ *
+ */
+public class TemplateRecordsCheck {
+  public static void main(String[] args) throws Exception {
+    csvQuoting();
+    csvDocuments();
+    jsonEscapes();
+    jsonDocuments();
+    jsonErrors();
+    System.out.println("TemplateRecordsCheck passed");
+  }
+
+  private static void csvQuoting() {
+    Iterator<Map<String, Object>> records = TemplateRecords.csv(new StringReader(
+        "Name,Text,Lines\r\n\"Doe, John\",\"say \"\"hi\"\"\",\"a\r\nb\"\n@acme,,x\n"));
+    Map<String, Object> expected = new LinkedHashMap<String, Object>();
+    expected.put("Name", "Doe, John");
+    expected.put("Text", "say \"hi\"");
+    expected.put("Lines", Arrays.asList("a", "b"));
+    checkEquals(expected, records.next(), "quoted fields");
+
+    expected.clear();
+    expected.put("Name", "@acme");
+    expected.put("Lines", "x");
+    checkEquals(expected, records.next(), "'@' is text, empty values are skipped");
+    check(!records.hasNext(), "end of input");
+
+    check(!TemplateRecords.csv(new StringReader("")).hasNext(), "empty input");
+  }
+
+  private static void csvDocuments() throws Exception {
+    final File base = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+    final Set<String> columns = Collections.singleton("Doc");
+    Iterator<Map<String, Object>> records = TemplateRecords
+        .csv(new StringReader("Name,Doc\na,sub/part.docx\nb,/etc/passwd\nc,../outside.docx\n"), columns, base);
+    checkEquals(new File(base, "sub/part.docx"), records.next().get("Doc"), "relative path");
+    checkEquals(new File(base, "etc/passwd"), records.next().get("Doc"), "absolute path stays inside");
+    final Iterator<Map<String, Object>> escaping = records;
+    checkThrows(IllegalArgumentException.class, new Checks.ThrowingRunnable() {
+      @Override
+      public void run() {
+        escaping.next();
+      }
+    }, "path outside of the base directory");
+
+    checkThrows(IllegalArgumentException.class, new Checks.ThrowingRunnable() {
+      @Override
+      public void run() {
+        TemplateRecords.csv(new StringReader("Doc\n"), columns, null);
+      }
+    }, "document columns without base directory");
+  }
+
+  private static void jsonEscapes() {
+    Iterator<Map<String, Object>> records = TemplateRecords.jsonLines(new StringReader(
+        "{\"Name\": \"a\\\"b\\\\c\\n\\u00e4\", \"Lines\": [\"x\", null, 3], \"Skip\": null}\n\n{}\n"));
+    Map<String, Object> expected = new LinkedHashMap<String, Object>();
+    expected.put("Name", "a\"b\\c\n\u00e4");
+    expected.put("Lines", Arrays.asList("x", "", "3"));
+    checkEquals(expected, records.next(), "escapes, lists and null");
+    checkEquals(Collections.emptyMap(), records.next(), "empty object after empty line");
+    check(!records.hasNext(), "end of input");
+  }
+
+  private static void jsonDocuments() throws Exception {
+    File base = new File(System.getProperty("java.io.tmpdir")).getCanonicalFile();
+    Iterator<Map<String, Object>> records = TemplateRecords.jsonLines(
+        new StringReader("{\"Doc\": {\"docx\": \"a.docx\"}, \"Name\": \"b.docx\"}\n{\"Doc\": \"c.docx\"}\n"),
+        Collections.singleton("Doc"), base);
+    Map<String, Object> record = records.next();
+    checkEquals(new File(base, "a.docx"), record.get("Doc"), "object form");
+    checkEquals("b.docx", record.get("Name"), "other keys are text");
+    checkEquals(new File(base, "c.docx"), records.next().get("Doc"), "string form");
+  }
+
+  private static void jsonErrors() {
+    for (final String line : new String[] { "{\"a\": {\"docx\": \"x.docx\"}}", "{\"a\": \"x\"", "{\"a\" \"x\"}",
+        "{\"a\": \"x\"} y", "{\"a\": [{\"docx\": \"x\"}]}" }) {
+      IllegalArgumentException e = checkThrows(IllegalArgumentException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() {
+          Iterator<Map<String, Object>> records = TemplateRecords.jsonLines(new StringReader("{}\n" + line));
+          records.next();
+          records.next();
+        }
+      }, line);
+      check(e.getMessage().startsWith("invalid record in line 2"), "line number in: " + e.getMessage());
+    }
+  }
+}
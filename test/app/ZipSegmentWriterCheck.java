@@ -0,0 +1,125 @@
+package app;
+
+import static app.Checks.checkBytes;
+import static app.Checks.checkEquals;
+import static app.Checks.checkThrows;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit checks for {@link ZipSegmentWriter}.<br>
+ *
+ */
+public class ZipSegmentWriterCheck {
+  public static void main(String[] args) throws Exception {
+    roundTrip();
+    entryLimit();
+    writeAfterFinish();
+    System.out.println("ZipSegmentWriterCheck passed");
+  }
+
+  /** entries written raw and precompressed read back through ZipFile */
+  private static void roundTrip() throws Exception {
+    byte[] random = new byte[200000];
+    new Random(42).nextBytes(random);
+    LinkedHashMap<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+    expected.put("[Content_Types].xml", "<Types/>".getBytes(ZipSegmentWriter.UTF8));
+    expected.put("word/empty.xml", new byte[0]);
+    expected.put("word/media/random.bin", random);
+    expected.put("word/\u00fcbersicht.xml", "<w:document/>".getBytes(ZipSegmentWriter.UTF8));
+
+    File file = File.createTempFile("zipcheck", ".zip");
+    try {
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+      try {
+        ZipSegmentWriter writer = new ZipSegmentWriter(out);
+        boolean precompressed = false;
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+          if (precompressed) {
+            writer.write(ZipSegmentWriter.Part.compress(entry.getKey(), entry.getValue()));
+          } else {
+            writer.write(entry.getKey(), entry.getValue());
+          }
+          precompressed = !precompressed;
+        }
+        writer.close();
+      } finally {
+        out.close();
+      }
+
+      ZipFile zip = new ZipFile(file);
+      try {
+        List<String> names = new ArrayList<String>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          names.add(entry.getName());
+          checkEquals((long) expected.get(entry.getName()).length, entry.getSize(), "size of " + entry.getName());
+        }
+        checkEquals(new ArrayList<String>(expected.keySet()), names, "entry names");
+      } finally {
+        zip.close();
+      }
+
+      LinkedHashMap<String, byte[]> actual = ZipSegmentWriter.readEntries(file);
+      checkEquals(expected.keySet(), actual.keySet(), "read entries");
+      for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+        checkBytes(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /** more entries than a zip without zip64 can hold */
+  private static void entryLimit() throws Exception {
+    final ZipSegmentWriter.Part part = ZipSegmentWriter.Part.compress("x", new byte[1]);
+    final ZipSegmentWriter writer = new ZipSegmentWriter(new NullOutputStream());
+    try {
+      for (int i = 0; i < 0xFFFE; i++) {
+        writer.write(part);
+      }
+      checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+        @Override
+        public void run() throws Exception {
+          writer.write(part);
+        }
+      }, "entry 65535");
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void writeAfterFinish() throws Exception {
+    final ZipSegmentWriter writer = new ZipSegmentWriter(new NullOutputStream());
+    writer.close();
+    checkThrows(IOException.class, new Checks.ThrowingRunnable() {
+      @Override
+      public void run() throws Exception {
+        writer.write("a", new byte[1]);
+      }
+    }, "write after finish");
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}